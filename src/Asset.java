@@ -0,0 +1,160 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+/**
+ * Represents an asset with basic properties like type, name, value, and purchase date.
+ * This is the one asset model shared by every screen; assets are loaded and saved
+ * through {@link AssetRepository}.
+ */
+class Asset {
+    /** Asset types offered by the UI. A type's position here is its standard type code. */
+    static final String[] TYPES = {"Stocks", "Real Estate", "Crypto", "Gold"};
+
+    /** Epoch day used for purchase dates that cannot be read as a calendar date. */
+    static final int UNKNOWN_DAY = Integer.MIN_VALUE;
+
+    int id;
+    String type;
+    String name;
+    double value;
+    String purchaseDate;
+
+    /**
+     * Constructs an Asset. New assets take their ID from {@link AssetRepository#nextId()}.
+     *
+     * @param id           the asset ID
+     * @param type         the asset type (e.g., Stock, Real Estate)
+     * @param name         the asset name
+     * @param value        the asset value
+     * @param purchaseDate the date the asset was purchased
+     */
+    public Asset(int id, String type, String name, double value, String purchaseDate) {
+        this.id = id;
+        this.type = type;
+        this.name = name;
+        this.value = value;
+        this.purchaseDate = purchaseDate;
+    }
+
+    /**
+     * Returns a string representation of the asset.
+     *
+     * @return a human-readable asset string
+     */
+    @Override
+    public String toString() {
+        return "#" + id + " - " + type + ": " + name + " | $" + value + " | " + purchaseDate;
+    }
+
+    /**
+     * Converts the asset to a CSV string for saving to file.
+     * Text fields that contain a comma, quote or line break are quoted.
+     *
+     * @return a CSV-formatted string
+     */
+    public String toFileString() {
+        return id + "," + quote(type) + "," + quote(name) + "," + value + "," + quote(purchaseDate);
+    }
+
+    /**
+     * Creates an Asset object from a line of file data.
+     * Quoted fields are unquoted; see {@link AssetRecordParser} for the accepted forms.
+     *
+     * @param line the line from the file
+     * @return an Asset object or null if the line is invalid
+     */
+    public static Asset fromFileString(String line) {
+        AssetRecordParser parser = new AssetRecordParser();
+        return parser.parse(line) ? parser.toAsset() : null;
+    }
+
+    /**
+     * Quotes a CSV field if it needs it, doubling any quotes inside. Readers split the file
+     * into records at line breaks before parsing, so a line break in the field is written as a
+     * space; a quoted one would end the record early.
+     *
+     * @param field the field text
+     * @return the text as written to file
+     */
+    static String quote(String field) {
+        if (hasLineBreak(field)) {
+            field = field.replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
+        }
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"') {
+                return '"' + field.replace("\"", "\"\"") + '"';
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Checks whether text contains a line break, which a field cannot hold on file.
+     *
+     * @param text the text
+     * @return true if it contains a CR or LF
+     */
+    static boolean hasLineBreak(String text) {
+        return text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+    }
+
+    /**
+     * Converts a purchase date to days since 1970-01-01.
+     * Both "yyyy-MM-dd" and "dd-MM-yyyy" are accepted, since files contain both.
+     *
+     * @param date the date text
+     * @return the epoch day, or {@link #UNKNOWN_DAY} if the text is not a valid date
+     */
+    static int toEpochDay(CharSequence date) {
+        if (date.length() != 10) return UNKNOWN_DAY;
+        boolean iso = date.charAt(4) == '-' && date.charAt(7) == '-';
+        boolean dayFirst = date.charAt(2) == '-' && date.charAt(5) == '-';
+        int year, month, day;
+        if (iso) {
+            year = digits(date, 0, 4);
+            month = digits(date, 5, 7);
+            day = digits(date, 8, 10);
+        } else if (dayFirst) {
+            day = digits(date, 0, 2);
+            month = digits(date, 3, 5);
+            year = digits(date, 6, 10);
+        } else {
+            return UNKNOWN_DAY;
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > YearMonth.of(year, month).lengthOfMonth()) {
+            return UNKNOWN_DAY;
+        }
+        return (int) LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    /**
+     * Checks whether a date's text is exactly the yyyy-MM-dd form of its epoch day, so the
+     * text can be rebuilt from the day alone.
+     *
+     * @param date the date text
+     * @param day  the result of {@link #toEpochDay(CharSequence)} for it
+     * @return true if the text is the ISO form of the day
+     */
+    static boolean isIsoDate(CharSequence date, int day) {
+        return day != UNKNOWN_DAY && date.charAt(4) == '-' && date.charAt(7) == '-';
+    }
+
+    /**
+     * Parses a run of decimal digits.
+     *
+     * @param text  the text
+     * @param start the first index
+     * @param end   one past the last index
+     * @return the number, or -1 if any character is not a digit
+     */
+    private static int digits(CharSequence text, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
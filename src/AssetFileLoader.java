@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads CSV asset files through memory maps.
+ * <p>
+ * A CSV file starts with a fixed-width header line, {@code #nextId=<10 digits>}, holding the
+ * next asset id that has not been handed out. Because its width never changes it is rewritten in
+ * place. It is followed by a {@link PortfolioSummary} line of fixed width. Record parsers skip both
+ * as invalid rows, and files written before they existed have neither.
+ * <p>
+ * Files smaller than {@value #DEFAULT_PARALLEL_THRESHOLD} bytes (or the {@code assets.parallelThreshold}
+ * system property) are parsed on the calling thread. Larger files are cut into chunks of at most
+ * {@value #MAX_CHUNK_BYTES} bytes whose edges are moved to the next line break, each chunk is
+ * mapped and parsed into its own {@link AssetTable} on the common fork-join pool, and the tables
+ * are appended in file order. When the pool has a single worker the chunks are parsed one after
+ * another on the calling thread instead.
+ * <p>
+ * {@link #loadInBatches} reads a file front to back in chunks of {@value #BATCH_BYTES} bytes
+ * instead, handing each chunk's rows over as soon as it is parsed, for callers that show rows
+ * while the rest of the file is still being read.
+ */
+class AssetFileLoader {
+    /** File size, in bytes, from which chunks are parsed in parallel when the property is not set. */
+    static final long DEFAULT_PARALLEL_THRESHOLD = 8L * 1024 * 1024;
+
+    /** File size from which chunks are parsed in parallel. */
+    private static final long PARALLEL_THRESHOLD = Long.getLong("assets.parallelThreshold", DEFAULT_PARALLEL_THRESHOLD);
+
+    /** Largest chunk handed to one task, which also keeps every mapping well under 2 GiB. */
+    static final int MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    /** Size of the chunks read by {@link #loadInBatches}. */
+    static final int BATCH_BYTES = 1024 * 1024;
+
+    /** Rough size of one CSV line, used to size each chunk's table up front. */
+    private static final int TYPICAL_LINE_BYTES = 48;
+
+    /** Start of the header line. */
+    static final String HEADER_PREFIX = "#nextId=";
+
+    /** Number of digits in the header's id. */
+    private static final int HEADER_DIGITS = 10;
+
+    /** Length of the header line in bytes, including its line break. */
+    static final int HEADER_LENGTH = HEADER_PREFIX.length() + HEADER_DIGITS + 1;
+
+    /** Offset of the summary line, which follows the header line. */
+    static final int SUMMARY_OFFSET = HEADER_LENGTH;
+
+    /**
+     * Builds the header line.
+     *
+     * @param nextId the next free asset id
+     * @return the line, including its line break
+     */
+    static String header(int nextId) {
+        return HEADER_PREFIX + String.format("%0" + HEADER_DIGITS + "d", nextId) + "\n";
+    }
+
+    /**
+     * Reads the next free id from a CSV file's header.
+     *
+     * @param channel the file
+     * @return the id, or -1 if the file has no header
+     * @throws IOException if the file cannot be read
+     */
+    static int readNextId(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_LENGTH);
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) > 0) {
+            // keep reading until the header is complete or the file ends
+        }
+        if (bytes.hasRemaining()) return -1;
+        for (int i = 0; i < HEADER_PREFIX.length(); i++) {
+            if (bytes.get(i) != HEADER_PREFIX.charAt(i)) return -1;
+        }
+        if (bytes.get(HEADER_LENGTH - 1) != '\n') return -1;
+        long id = 0;
+        for (int i = HEADER_PREFIX.length(); i < HEADER_LENGTH - 1; i++) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            id = id * 10 + digit;
+        }
+        return id > Integer.MAX_VALUE ? -1 : (int) id;
+    }
+
+    /**
+     * Overwrites the id in a CSV file's header, which must already be present.
+     *
+     * @param channel the file, open for writing
+     * @param nextId  the next free asset id
+     * @throws IOException if the file cannot be written
+     */
+    static void writeNextId(FileChannel channel, int nextId) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(header(nextId).getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, bytes.position());
+        }
+    }
+
+    /**
+     * Reads the next free id from a CSV file's header.
+     *
+     * @param path the file
+     * @return the id, or -1 if the file is missing or has no header
+     * @throws IOException if the file cannot be read
+     */
+    static int readNextId(Path path) throws IOException {
+        if (!Files.exists(path)) return -1;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readNextId(channel);
+        }
+    }
+
+    /**
+     * Loads every valid line of a CSV asset file into a table, skipping lines that do not parse.
+     *
+     * @param path  the file to read
+     * @param table the table to append to
+     * @throws IOException if the file cannot be read
+     */
+    static void load(Path path, AssetTable table) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < PARALLEL_THRESHOLD) {
+                if (size > 0) {
+                    table.addAll(parse(channel, 0, size));
+                }
+                return;
+            }
+
+            int chunks = (int) Math.max(ForkJoinPool.getCommonPoolParallelism() * 4L,
+                    (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            long chunkSize = Math.min(MAX_CHUNK_BYTES, (size + chunks - 1) / chunks);
+
+            boolean parallel = ForkJoinPool.getCommonPoolParallelism() > 1;
+            List<ForkJoinTask<AssetTable>> tasks = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize, size);
+                if (parallel) {
+                    long from = start;
+                    tasks.add(ForkJoinPool.commonPool().submit(() -> parse(channel, from, end)));
+                } else {
+                    // A single-core pool would only add hand-off cost; still map one chunk at a time
+                    table.addAll(parse(channel, start, end));
+                }
+                start = end;
+            }
+            for (ForkJoinTask<AssetTable> task : tasks) {
+                table.addAll(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + path, e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Receives the rows of a file a batch at a time.
+     */
+    interface BatchSink {
+        /**
+         * Takes one batch of rows.
+         *
+         * @param rows      the rows parsed from the next chunk of the file
+         * @param bytesRead bytes of the file read so far
+         * @param size      the file size
+         * @return false to stop reading
+         */
+        boolean accept(AssetTable rows, long bytesRead, long size);
+    }
+
+    /**
+     * Reads a file in order, one chunk at a time, passing each chunk's rows on as it is parsed.
+     *
+     * @param path the file
+     * @param sink receives each batch
+     * @return false if the sink stopped the load early
+     * @throws IOException if the file cannot be read
+     */
+    static boolean loadInBatches(Path path, BatchSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long end = start + BATCH_BYTES >= size ? size : nextLineStart(channel, start + BATCH_BYTES, size);
+                if (!sink.accept(parse(channel, start, end), end, size)) return false;
+                start = end;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Finds the first position after a line break at or past a position.
+     *
+     * @param channel the file
+     * @param from    where to start looking
+     * @param size    the file size
+     * @return the start of the next line, or the file size if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(8192);
+        long pos = from;
+        while (pos < size) {
+            block.clear();
+            int read = channel.read(block, pos);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    /**
+     * Maps one chunk and parses its lines in place with an {@link AssetRecordParser}.
+     *
+     * @param channel the file
+     * @param start   the first byte of the chunk, at the start of a line
+     * @param end     one past the last byte of the chunk
+     * @return the parsed rows
+     * @throws IOException if the chunk cannot be mapped
+     */
+    private static AssetTable parse(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int limit = chunk.limit();
+        AssetTable table = new AssetTable(limit / TYPICAL_LINE_BYTES);
+        AssetRecordParser parser = new AssetRecordParser();
+        int lineStart = 0;
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && chunk.get(i) != '\n') continue;
+            int lineEnd = i;
+            if (lineEnd > lineStart && chunk.get(lineEnd - 1) == '\r') lineEnd--;
+            if (lineEnd > lineStart && parser.parse(chunk, lineStart, lineEnd)) {
+                table.add(parser);
+            }
+            lineStart = i + 1;
+        }
+        return table;
+    }
+}
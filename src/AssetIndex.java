@@ -0,0 +1,149 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over an {@link AssetTable}, kept up to date by the table on every change.
+ * <ul>
+ *   <li>asset id to row, so an id can be resolved without a scan;</li>
+ *   <li>type code to ids, a hash index;</li>
+ *   <li>purchase date (epoch day) to ids, a sorted index for range queries. Rows whose date
+ *       cannot be read are left out of it;</li>
+ *   <li>lower-cased name to ids, a sorted index whose prefix queries are a sub-map.</li>
+ * </ul>
+ * Ids are expected to be unique within a table, which {@link AssetRepository#nextId()} ensures.
+ */
+class AssetIndex {
+    private final Map<Integer, Integer> rowById = new HashMap<>();
+    private final Map<Integer, Set<Integer>> idsByType = new HashMap<>();
+    private final NavigableMap<Integer, Set<Integer>> idsByDay = new TreeMap<>();
+    private final NavigableMap<String, Set<Integer>> idsByName = new TreeMap<>();
+
+    /**
+     * Indexes a row.
+     *
+     * @param row      the row number
+     * @param id       the asset id
+     * @param typeCode the type code
+     * @param day      the purchase date as an epoch day, or {@link Asset#UNKNOWN_DAY}
+     * @param name     the asset name
+     */
+    void add(int row, int id, int typeCode, int day, String name) {
+        rowById.put(id, row);
+        idsByType.computeIfAbsent(typeCode, k -> new HashSet<>()).add(id);
+        if (day != Asset.UNKNOWN_DAY) {
+            idsByDay.computeIfAbsent(day, k -> new HashSet<>()).add(id);
+        }
+        idsByName.computeIfAbsent(nameKey(name), k -> new HashSet<>()).add(id);
+    }
+
+    /**
+     * Removes a row's entries.
+     *
+     * @param id       the asset id
+     * @param typeCode the type code it was indexed under
+     * @param day      the epoch day it was indexed under
+     * @param name     the name it was indexed under
+     */
+    void remove(int id, int typeCode, int day, String name) {
+        rowById.remove(id);
+        removeFrom(idsByType, typeCode, id);
+        if (day != Asset.UNKNOWN_DAY) {
+            removeFrom(idsByDay, day, id);
+        }
+        removeFrom(idsByName, nameKey(name), id);
+    }
+
+    /**
+     * Records that an asset now sits in a different row.
+     *
+     * @param id  the asset id
+     * @param row its new row number
+     */
+    void moveRow(int id, int row) {
+        rowById.put(id, row);
+    }
+
+    /**
+     * Returns the row holding an asset.
+     *
+     * @param id the asset id
+     * @return the row number, or -1 if no row has that id
+     */
+    int rowOf(int id) {
+        Integer row = rowById.get(id);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * Returns the ids of every asset of one type.
+     *
+     * @param typeCode the type code
+     * @return the ids; must not be modified
+     */
+    Set<Integer> idsOfType(int typeCode) {
+        Set<Integer> ids = idsByType.get(typeCode);
+        return ids == null ? Set.of() : ids;
+    }
+
+    /**
+     * Returns the ids of assets bought within a range of days.
+     *
+     * @param fromDay the first epoch day, inclusive
+     * @param toDay   the last epoch day, exclusive
+     * @return the ids
+     */
+    Set<Integer> idsBoughtBetween(int fromDay, int toDay) {
+        Set<Integer> ids = new HashSet<>();
+        if (fromDay < toDay) {
+            for (Set<Integer> day : idsByDay.subMap(fromDay, true, toDay, false).values()) {
+                ids.addAll(day);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of assets whose name starts with a prefix, ignoring case.
+     *
+     * @param prefix the prefix
+     * @return the ids
+     */
+    Set<Integer> idsWithNamePrefix(String prefix) {
+        String key = nameKey(prefix);
+        Set<Integer> ids = new HashSet<>();
+        for (Set<Integer> name : idsByName.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+            ids.addAll(name);
+        }
+        return ids;
+    }
+
+    /**
+     * Normalizes a name for the name index.
+     *
+     * @param name the name
+     * @return the index key
+     */
+    private static String nameKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Removes an id from one key's set, dropping the key once its set is empty.
+     *
+     * @param index the index
+     * @param key   the key
+     * @param id    the id
+     * @param <K>   the key type
+     */
+    private static <K> void removeFrom(Map<K, Set<Integer>> index, K key, int id) {
+        Set<Integer> ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
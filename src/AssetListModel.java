@@ -0,0 +1,207 @@
+import javax.swing.*;
+import javax.swing.plaf.basic.ComboPopup;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A list and combo box model that reads assets straight from an {@link AssetRepository}
+ * instead of copying them into the component.
+ * <p>
+ * Nothing is read when the model is created: rows are fetched and formatted only when a
+ * component paints them, and the last {@value #CACHE_SIZE} rows fetched are kept with their text
+ * so repainting or scrolling back does not build them again. Components should be set up with
+ * {@link #install(JList)} or {@link #install(JComboBox)}, which give them a fixed cell size so
+ * Swing does not measure every row. An optional name prefix filter narrows the rows; typing
+ * more of the same prefix filters the current matches instead of querying again.
+ * <p>
+ * The model does not follow the store by itself; call {@link #refresh()} after the store changes.
+ */
+class AssetListModel extends AbstractListModel<Asset> implements ComboBoxModel<Asset> {
+    /** Number of rows kept with their text; a power of two. */
+    private static final int CACHE_SIZE = 256;
+
+    /** Asset used to size cells, as wide as a typical row. */
+    private static final Asset PROTOTYPE = new Asset(100000, "Real Estate", "Prototype asset name", 1000000.0, "2000-01-01");
+
+    private final AssetRepository store;
+    private final Function<Asset, String> format;
+
+    /** The active filter prefix, or an empty string for none. */
+    private String filter = "";
+
+    /** Assets matching {@link #filter}, or null when there is no filter and rows come from the store. */
+    private List<Asset> matches;
+
+    /** Row count last announced to listeners. */
+    private int size;
+
+    /** The combo box selection. */
+    private Object selected;
+
+    /** Row held in each cache slot, or -1. */
+    private final int[] cachedRows = new int[CACHE_SIZE];
+    private final Asset[] cachedAssets = new Asset[CACHE_SIZE];
+
+    /** Formatted text of each cached row, or null until it is first rendered. */
+    private final String[] cachedText = new String[CACHE_SIZE];
+
+    /**
+     * Creates a model over a store.
+     *
+     * @param store  the assets to show
+     * @param format turns an asset into its display text
+     */
+    AssetListModel(AssetRepository store, Function<Asset, String> format) {
+        this.store = store;
+        this.format = format;
+        Arrays.fill(cachedRows, -1);
+        size = store.size();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Asset getElementAt(int index) {
+        int slot = index & (CACHE_SIZE - 1);
+        if (cachedRows[slot] != index) {
+            Asset asset = matches != null ? (index < matches.size() ? matches.get(index) : null) : store.getAsset(index);
+            if (asset == null) return null;
+            cachedRows[slot] = index;
+            cachedAssets[slot] = asset;
+            cachedText[slot] = null;
+        }
+        return cachedAssets[slot];
+    }
+
+    /**
+     * Returns the display text of a row, formatting it only the first time.
+     *
+     * @param index the row
+     * @return the text, or an empty string if the row no longer exists
+     */
+    String textAt(int index) {
+        Asset asset = getElementAt(index);
+        if (asset == null) return "";
+        int slot = index & (CACHE_SIZE - 1);
+        if (cachedText[slot] == null) {
+            cachedText[slot] = format.apply(asset);
+        }
+        return cachedText[slot];
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        selected = item;
+        fireContentsChanged(this, -1, -1);
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selected;
+    }
+
+    /**
+     * Shows only assets whose name starts with a prefix, ignoring case. A prefix that extends
+     * the current one narrows the current matches; any other prefix queries the store's name index.
+     *
+     * @param prefix the prefix; blank shows every asset
+     */
+    void setFilter(String prefix) {
+        String next = prefix.trim();
+        if (next.isEmpty()) {
+            matches = null;
+        } else if (matches != null && next.regionMatches(true, 0, filter, 0, filter.length())) {
+            List<Asset> narrowed = new ArrayList<>();
+            for (Asset asset : matches) {
+                if (asset.name.regionMatches(true, 0, next, 0, next.length())) {
+                    narrowed.add(asset);
+                }
+            }
+            matches = narrowed;
+        } else {
+            matches = store.findAssets(null, null, null, next);
+        }
+        filter = next;
+        rowsChanged();
+    }
+
+    /**
+     * Re-reads the store after it has changed, keeping the current filter.
+     */
+    void refresh() {
+        if (!filter.isEmpty()) {
+            matches = store.findAssets(null, null, null, filter);
+        }
+        rowsChanged();
+    }
+
+    /**
+     * Empties the cache and tells listeners that the rows changed.
+     */
+    private void rowsChanged() {
+        Arrays.fill(cachedRows, -1);
+        Arrays.fill(cachedAssets, null);
+        Arrays.fill(cachedText, null);
+        int oldSize = size;
+        size = matches != null ? matches.size() : store.size();
+        if (size < oldSize) {
+            fireIntervalRemoved(this, size, oldSize - 1);
+        } else if (size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        }
+        if (size > 0) {
+            fireContentsChanged(this, 0, size - 1);
+        }
+    }
+
+    /**
+     * Shows this model in a list with a fixed cell size and the cached text.
+     *
+     * @param list the list
+     */
+    void install(JList<Asset> list) {
+        list.setModel(this);
+        list.setCellRenderer(new Renderer());
+        list.setPrototypeCellValue(PROTOTYPE);
+    }
+
+    /**
+     * Shows this model in a combo box, sizing the box and its popup list from a prototype row.
+     *
+     * @param comboBox the combo box
+     */
+    void install(JComboBox<Asset> comboBox) {
+        comboBox.setModel(this);
+        comboBox.setRenderer(new Renderer());
+        comboBox.setPrototypeDisplayValue(PROTOTYPE);
+        Object popup = comboBox.getUI().getAccessibleChild(comboBox, 0);
+        if (popup instanceof ComboPopup) {
+            ((ComboPopup) popup).getList().setPrototypeCellValue(PROTOTYPE);
+        }
+    }
+
+    /**
+     * Renders rows with the model's cached text.
+     */
+    private class Renderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(
+                JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            if (index >= 0 && list.getModel() == AssetListModel.this) {
+                setText(textAt(index));
+            } else if (value instanceof Asset) {
+                // The combo box's own display, or the prototype being measured
+                setText(format.apply((Asset) value));
+            }
+            return this;
+        }
+    }
+}
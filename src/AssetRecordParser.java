@@ -0,0 +1,383 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses one CSV asset record at a time straight out of a byte buffer.
+ * <p>
+ * A record is {@code id,type,name,value,purchaseDate}. A field may be wrapped in double quotes,
+ * in which case it can contain commas and a doubled quote stands for one quote; this is what
+ * {@link Asset#toFileString()} writes. Older files wrote names with commas unquoted, so a record
+ * with more than five fields is read with the extra fields joined back into the name.
+ * <p>
+ * Fields are found in one pass over the bytes and numbers are decoded in place. The only objects
+ * created for a typical row are the name string and, when the date is not in yyyy-MM-dd form,
+ * the date string; the standard type names are matched against constants. A parser holds its
+ * scratch state, so each thread needs its own.
+ */
+final class AssetRecordParser {
+    /** The standard type names in UTF-8, indexed like {@link Asset#TYPES}. */
+    private static final byte[][] TYPE_BYTES = new byte[Asset.TYPES.length][];
+
+    static {
+        for (int i = 0; i < Asset.TYPES.length; i++) {
+            TYPE_BYTES[i] = Asset.TYPES[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Powers of ten up to 10^22, the largest that a double holds exactly. */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /** Largest mantissa a double holds exactly. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** Parsed id. */
+    int id;
+
+    /** Parsed type name. */
+    String type;
+
+    /** Parsed name. */
+    String name;
+
+    /** Parsed value. */
+    double value;
+
+    /** Parsed purchase date as an epoch day, or {@link Asset#UNKNOWN_DAY}. */
+    int epochDay;
+
+    /** Purchase date text, or null when it is the yyyy-MM-dd form of {@link #epochDay}. */
+    String dateText;
+
+    private ByteBuffer buffer;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private boolean[] quoted = new boolean[8];
+    private int fields;
+    private byte[] scratch = new byte[128];
+
+    /** Reusable view of a run of ASCII bytes, for {@link Asset#toEpochDay(CharSequence)}. */
+    private final ByteChars chars = new ByteChars();
+
+    /**
+     * Parses the record held in a string.
+     *
+     * @param line the record, without its line break
+     * @return true if it is a valid record
+     */
+    boolean parse(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Parses the record between two positions of a buffer. The buffer's position and limit are
+     * not used or changed.
+     *
+     * @param buffer the bytes
+     * @param start  the first byte of the record
+     * @param end    one past the last byte, excluding any line break
+     * @return true if it is a valid record; the public fields then hold its values
+     */
+    boolean parse(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        if (!split(start, end) || fields < 5) return false;
+
+        int last = fields - 1;
+        int nameField = 2;
+        int nameEnd = ends[fields - 3];
+        if (fields > 5) {
+            for (int f = 2; f <= fields - 3; f++) {
+                if (quoted[f]) return false;
+            }
+        }
+
+        long parsedId = parseLong(starts[0], ends[0]);
+        if (parsedId == Long.MIN_VALUE || parsedId != (int) parsedId) return false;
+        double parsedValue = parseValue(starts[last - 1], ends[last - 1], quoted[last - 1]);
+        if (Double.isNaN(parsedValue) && !isNaNText(starts[last - 1], ends[last - 1])) return false;
+
+        id = (int) parsedId;
+        value = parsedValue;
+        type = typeName(starts[1], ends[1], quoted[1]);
+        name = decode(starts[nameField], nameEnd, quoted[nameField]);
+        chars.set(starts[last], ends[last]);
+        epochDay = Asset.toEpochDay(chars);
+        dateText = !quoted[last] && Asset.isIsoDate(chars, epochDay) ? null : decode(starts[last], ends[last], quoted[last]);
+        return true;
+    }
+
+    /**
+     * Builds an asset from the last record parsed.
+     *
+     * @return the asset
+     */
+    Asset toAsset() {
+        return new Asset(id, type, name, value, purchaseDate());
+    }
+
+    /**
+     * Returns the purchase date text of the last record parsed.
+     *
+     * @return the date text
+     */
+    String purchaseDate() {
+        return dateText != null ? dateText : chars.toString();
+    }
+
+    /**
+     * Finds the field boundaries of a record. Quoted fields record the bytes between the quotes.
+     *
+     * @param start the first byte
+     * @param end   one past the last byte
+     * @return false if a quoted field is not closed properly
+     */
+    private boolean split(int start, int end) {
+        fields = 0;
+        int pos = start;
+        while (true) {
+            if (fields == starts.length) {
+                starts = Arrays.copyOf(starts, fields * 2);
+                ends = Arrays.copyOf(ends, fields * 2);
+                quoted = Arrays.copyOf(quoted, fields * 2);
+            }
+            if (pos < end && buffer.get(pos) == '"') {
+                int fieldStart = pos + 1;
+                pos = fieldStart;
+                while (true) {
+                    if (pos >= end) return false;
+                    if (buffer.get(pos) == '"') {
+                        if (pos + 1 < end && buffer.get(pos + 1) == '"') {
+                            pos += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    pos++;
+                }
+                starts[fields] = fieldStart;
+                ends[fields] = pos;
+                quoted[fields] = true;
+                fields++;
+                pos++;
+                if (pos == end) return true;
+                if (buffer.get(pos) != ',') return false;
+                pos++;
+            } else {
+                int fieldStart = pos;
+                while (pos < end && buffer.get(pos) != ',') {
+                    pos++;
+                }
+                starts[fields] = fieldStart;
+                ends[fields] = pos;
+                quoted[fields] = false;
+                fields++;
+                if (pos == end) return true;
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Parses a decimal integer.
+     *
+     * @param start the first byte
+     * @param end   one past the last byte
+     * @return the number, or {@link Long#MIN_VALUE} if the bytes are not a number that fits an int
+     */
+    private long parseLong(int start, int end) {
+        int pos = start;
+        boolean negative = pos < end && buffer.get(pos) == '-';
+        if (negative) pos++;
+        if (pos == end || end - pos > 10) return Long.MIN_VALUE;
+        long result = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a decimal value such as {@code 1234.5} or {@code 1.0E10}. When the digits fit in a
+     * double's mantissa and the power of ten is exact, one multiply or divide gives the correctly
+     * rounded result; anything else goes through {@link Double#parseDouble}.
+     *
+     * @param start  the first byte
+     * @param end    one past the last byte
+     * @param quoted whether the field was quoted
+     * @return the value, or NaN if the bytes are not a number
+     */
+    private double parseValue(int start, int end, boolean quoted) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; pos < end; pos++) {
+            byte b = buffer.get(pos);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || b != '0') {
+                    if (++digits > 18) return slowValue(start, end, quoted);
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                if (seenPoint) exponent--;
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) return slowValue(start, end, quoted);
+        if (pos < end) {
+            byte b = buffer.get(pos);
+            if (b != 'e' && b != 'E') return slowValue(start, end, quoted);
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                negativeExponent = buffer.get(pos) == '-';
+                pos++;
+            }
+            if (pos == end || end - pos > 3) return slowValue(start, end, quoted);
+            int e = 0;
+            for (; pos < end; pos++) {
+                int digit = buffer.get(pos) - '0';
+                if (digit < 0 || digit > 9) return Double.NaN;
+                e = e * 10 + digit;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return slowValue(start, end, quoted);
+        }
+        double result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a value with {@link Double#parseDouble}, for forms the fast path does not cover.
+     *
+     * @param start  the first byte
+     * @param end    one past the last byte
+     * @param quoted whether the field was quoted
+     * @return the value, or NaN if the text is not a number
+     */
+    private double slowValue(int start, int end, boolean quoted) {
+        try {
+            return Double.parseDouble(decode(start, end, quoted));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Checks whether a value field literally says NaN, which {@link Asset#toFileString()} can write.
+     *
+     * @param start the first byte
+     * @param end   one past the last byte
+     * @return true if the field is "NaN"
+     */
+    private boolean isNaNText(int start, int end) {
+        return end - start == 3 && buffer.get(start) == 'N' && buffer.get(start + 1) == 'a' && buffer.get(start + 2) == 'N';
+    }
+
+    /**
+     * Returns a type name, using the shared constant for the standard types.
+     *
+     * @param start  the first byte
+     * @param end    one past the last byte
+     * @param quoted whether the field was quoted
+     * @return the type name
+     */
+    private String typeName(int start, int end, boolean quoted) {
+        for (int t = 0; t < TYPE_BYTES.length; t++) {
+            byte[] candidate = TYPE_BYTES[t];
+            if (candidate.length != end - start) continue;
+            int i = 0;
+            while (i < candidate.length && buffer.get(start + i) == candidate[i]) {
+                i++;
+            }
+            if (i == candidate.length) return Asset.TYPES[t];
+        }
+        return decode(start, end, quoted);
+    }
+
+    /**
+     * Decodes a field as UTF-8, turning doubled quotes back into single ones in a quoted field.
+     *
+     * @param start  the first byte
+     * @param end    one past the last byte
+     * @param quoted whether the field was quoted
+     * @return the text
+     */
+    private String decode(int start, int end, boolean quoted) {
+        int length = end - start;
+        if (!quoted && buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        int n = 0;
+        for (int pos = start; pos < end; pos++) {
+            byte b = buffer.get(pos);
+            scratch[n++] = b;
+            if (quoted && b == '"') pos++;
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A {@link CharSequence} over a run of bytes in the current buffer, valid for ASCII text.
+     */
+    private final class ByteChars implements CharSequence {
+        private int start;
+        private int end;
+
+        /**
+         * Points the view at a run of bytes.
+         *
+         * @param start the first byte
+         * @param end   one past the last byte
+         */
+        void set(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return decode(start, end, false);
+        }
+    }
+}
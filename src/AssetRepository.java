@@ -0,0 +1,2267 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manages a user's assets and handles file persistence.
+ * Each user's assets live in "assets_&lt;username&gt;.txt", one {@link Asset#toFileString()} line per asset.
+ * <p>
+ * Repositories are shared: {@link #forUser(String)} hands out one instance per user and keeps
+ * the most recently used ones in a bounded LRU cache, so a process serving many users loads
+ * each portfolio once. The cache size defaults to {@value #DEFAULT_CACHE_SIZE} and can be set
+ * with the {@code assets.cacheSize} system property.
+ * A session that {@link #hold(String)}s a repository keeps it alive past eviction: it goes on
+ * watching its files and is handed out again, so no user ever has two live instances.
+ * <p>
+ * New assets are appended to the end of the file through a writer that stays open for the
+ * life of the repository, so adding one asset writes one line no matter how large the
+ * portfolio is. Edits and removals are appended to a journal, "assets_&lt;username&gt;.journal",
+ * as upsert ({@code U,<asset line>}) or tombstone ({@code D,<id>}) records that are replayed
+ * over the base file on load. Once the journal grows past {@value #COMPACT_MIN_BYTES} bytes and
+ * half the size of the base file, a background thread folds it into a fresh base file.
+ * <p>
+ * Changes are applied in memory at once and written behind: they are buffered and handed to
+ * the {@link PersistenceQueue}, whose writer appends everything buffered in one write, so a
+ * screen that changes the portfolio never waits for the disk. {@link #whenSaved()} tells
+ * callers when their changes are on disk or whether writing them failed.
+ * <p>
+ * The base file can instead be kept in the binary {@link ColumnarAssetFile} format,
+ * "assets_&lt;username&gt;.col". A store uses that format if the file exists, otherwise the format
+ * named by the {@code assets.format} system property ({@code csv} or {@code columnar}, CSV by
+ * default). In columnar mode new assets are journaled as upserts, since the base file cannot
+ * be appended to, and compaction rewrites it. {@link #convertTo(Format)} switches a store
+ * between the two formats.
+ * <p>
+ * In memory the portfolio is an {@link AssetTable} of primitive columns; {@link #getAssets()}
+ * returns a read-only view of it and {@link #totalValue()} sums the value column directly.
+ * {@link #findAssets} answers queries by type, purchase date range and name prefix from the
+ * table's secondary indexes instead of walking every asset. Every change, local or read from
+ * the files, gives the portfolio a new {@link #version()}; {@link #summary()} and
+ * {@link #zakat(ZakatEngine)} are kept in the {@link ValuationCache} under it, so asking again
+ * before the next change is free.
+ * <p>
+ * Asset ids come from a per-user sequence. The next free id is kept in the base file's header
+ * (see {@link AssetFileLoader} and {@link ColumnarAssetFile}); blocks of {@value #ID_BLOCK} ids
+ * are reserved by rewriting that header under the file lock, and {@link #nextId()} hands them
+ * out with a compare-and-set, so ids stay unique across threads and across processes sharing
+ * the files. The first block is reserved when the portfolio is loaded and the next one on the
+ * {@link PersistenceQueue} writer once half of the current one is used, so screens get ids
+ * from memory. Ids reserved but not used before the process exits are skipped, never reused.
+ * Base files written before the header existed get one when the portfolio is loaded.
+ * <p>
+ * The table keeps running totals, and after every change they are written over a fixed-width
+ * {@link PortfolioSummary} slot in the same header, together with the file sizes they describe.
+ * {@link #peekSummary(String)} reads that slot without loading the portfolio. If the files are
+ * changed by anything but this repository the sizes stop matching and the slot is ignored
+ * until this repository has read the changes.
+ * <p>
+ * A repository watches its files through {@link DataWatcher}, so changes made by another
+ * process are picked up without reloading: bytes appended to the base file or the journal are
+ * read and applied as upserts and tombstones, and only a file that was truncated, replaced or
+ * converted to the other format is read again in full. Change listeners are told afterwards.
+ * <p>
+ * Every write to a user's files, appends, id reservations, compactions and conversions, holds
+ * an exclusive lock on "assets_&lt;username&gt;.lock", a file that is never replaced, so a
+ * process cannot append to a file another process is in the middle of replacing.
+ * <p>
+ * The repository's monitor guards the rows and the unsaved changes, and screens take it to
+ * read rows, so file work does not hold it while reading or writing: writes take a copy of
+ * the unsaved changes under it and write without it, and re-reads and tails are read and
+ * parsed without it and applied or swapped in under it. That file work is ordered by a lock of
+ * its own. Locks are always taken in the order: file work, file lock, monitor.
+ */
+class AssetRepository {
+    /** Number of repositories kept when the system property is not set. */
+    static final int DEFAULT_CACHE_SIZE = 32;
+
+    /** Maximum number of repositories kept in the cache. */
+    private static final int CACHE_SIZE = Integer.getInteger("assets.cacheSize", DEFAULT_CACHE_SIZE);
+
+    /** Journal size below which compaction is never worth scheduling. */
+    static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+    /** Journal record prefix for an inserted or replaced asset. */
+    private static final String UPSERT = "U,";
+
+    /** Journal record prefix for a removed asset. */
+    private static final String TOMBSTONE = "D,";
+
+    /** Rows of a columnar file added per batch when loading with a listener. */
+    private static final int BATCH_ROWS = 65536;
+
+    /** Number of ids reserved from the file header at a time. */
+    static final int ID_BLOCK = 64;
+
+    /** Format used for new stores when the system property is not set. */
+    private static final String DEFAULT_FORMAT = System.getProperty("assets.format", "csv");
+
+    /**
+     * The ways a store's base file can be written.
+     */
+    enum Format {
+        /** One {@link Asset#toFileString()} line per asset. */
+        CSV(".txt"),
+
+        /** The binary {@link ColumnarAssetFile} layout. */
+        COLUMNAR(".col");
+
+        /** File name extension of base files in this format. */
+        final String extension;
+
+        /**
+         * Creates a format constant.
+         *
+         * @param extension the file name extension
+         */
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Follows a portfolio being loaded batch by batch.
+     */
+    interface LoadListener {
+        /**
+         * Called after each batch of rows has been added, on the loading thread.
+         *
+         * @param rows    the number of rows loaded so far
+         * @param percent how much of the base file has been read, from 0 to 100
+         * @return false to cancel the load
+         */
+        boolean rowsLoaded(int rows, int percent);
+    }
+
+    /**
+     * A list of adds, updates and removals applied together by {@link #commit(Batch)}.
+     * Nothing happens until the batch is committed.
+     */
+    static final class Batch {
+        /** Kind of an operation: add, update or remove. */
+        private static final byte ADD = 0, UPDATE = 1, REMOVE = 2;
+
+        private final List<Asset> assets = new ArrayList<>();
+        private byte[] kinds = new byte[16];
+        private int[] ids = new int[16];
+        private int size;
+
+        /**
+         * Queues a new asset.
+         *
+         * @param asset the asset, with an id from {@link AssetRepository#nextId()}
+         * @return this batch
+         */
+        Batch add(Asset asset) {
+            return queue(ADD, asset.id, asset);
+        }
+
+        /**
+         * Queues a replacement for the asset with a given id.
+         *
+         * @param id       the id of the asset to update
+         * @param newAsset the updated asset, which must keep the same id
+         * @return this batch
+         * @throws IllegalArgumentException if the new asset has a different id
+         */
+        Batch update(int id, Asset newAsset) {
+            if (newAsset.id != id) {
+                throw new IllegalArgumentException("Asset id " + newAsset.id + " does not match " + id);
+            }
+            return queue(UPDATE, id, newAsset);
+        }
+
+        /**
+         * Queues the removal of the asset with a given id.
+         *
+         * @param id the id of the asset to remove
+         * @return this batch
+         */
+        Batch remove(int id) {
+            return queue(REMOVE, id, null);
+        }
+
+        /**
+         * Returns the number of queued operations.
+         *
+         * @return the count
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Appends an operation.
+         *
+         * @param kind  the operation kind
+         * @param id    the asset id
+         * @param asset the new asset, or null for a removal
+         * @return this batch
+         */
+        private Batch queue(byte kind, int id, Asset asset) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            kinds[size] = kind;
+            ids[size] = id;
+            assets.add(asset);
+            size++;
+            return this;
+        }
+    }
+
+    /**
+     * The lock on one user's files, shared by every repository of that user in this process.
+     * Holds nest: the file lock is taken by the outermost hold and released when it ends.
+     */
+    private static final class FileMutex {
+        /** Orders the threads of this process; a file lock only excludes other processes. */
+        private final ReentrantLock local = new ReentrantLock();
+
+        /** The lock file. */
+        private final Path path;
+
+        /** The lock file, open while the lock is held. */
+        private FileChannel channel;
+
+        /**
+         * Creates the lock for a lock file.
+         *
+         * @param path the lock file, created when first locked
+         */
+        FileMutex(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * Waits until no other thread or process holds the lock, then takes it.
+         *
+         * @throws IOException if the lock file cannot be opened or locked
+         */
+        void lock() throws IOException {
+            local.lock();
+            if (local.getHoldCount() > 1) return;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.lock();
+            } catch (IOException | RuntimeException e) {
+                channel = closeQuietly(channel);
+                local.unlock();
+                throw e;
+            }
+        }
+
+        /**
+         * Ends one hold, releasing the file lock if it was the outermost.
+         */
+        void unlock() {
+            if (local.getHoldCount() == 1) {
+                // Closing the channel releases its lock
+                channel = closeQuietly(channel);
+            }
+            local.unlock();
+        }
+    }
+
+    /**
+     * Rows of a table by asset id, for replaying the journal before the table keeps its
+     * indexes. Ids and rows sit in two primitive arrays probed linearly; a removed id keeps
+     * its slot with row -1.
+     */
+    private static final class RowsById {
+        /** Asset ids by slot; {@link #rows} tells which slots are used. */
+        private int[] ids;
+
+        /** Row plus one by slot: 0 for an empty slot, -1 for an id whose row was removed. */
+        private int[] rows;
+
+        /** Number of used slots. */
+        private int used;
+
+        /**
+         * Indexes every row of a table.
+         *
+         * @param table the table
+         */
+        RowsById(AssetTable table) {
+            int capacity = Integer.highestOneBit(Math.max(table.size(), 8) * 2) * 2;
+            ids = new int[capacity];
+            rows = new int[capacity];
+            for (int row = 0; row < table.size(); row++) {
+                put(table.id(row), row);
+            }
+        }
+
+        /**
+         * Returns the row holding an id.
+         *
+         * @param id the asset id
+         * @return the row, or -1 if no row holds it
+         */
+        int get(int id) {
+            int slot = slotOf(ids, rows, id);
+            return rows[slot] <= 0 ? -1 : rows[slot] - 1;
+        }
+
+        /**
+         * Records the row holding an id.
+         *
+         * @param id  the asset id
+         * @param row the row, or -1 once it is removed
+         */
+        void put(int id, int row) {
+            int slot = slotOf(ids, rows, id);
+            if (rows[slot] == 0) {
+                if (++used * 2 > ids.length) {
+                    grow();
+                    slot = slotOf(ids, rows, id);
+                }
+                ids[slot] = id;
+            }
+            rows[slot] = row < 0 ? -1 : row + 1;
+        }
+
+        /**
+         * Doubles the number of slots.
+         */
+        private void grow() {
+            int[] oldIds = ids;
+            int[] oldRows = rows;
+            ids = new int[oldIds.length * 2];
+            rows = new int[oldRows.length * 2];
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldRows[i] == 0) continue;
+                int slot = slotOf(ids, rows, oldIds[i]);
+                ids[slot] = oldIds[i];
+                rows[slot] = oldRows[i];
+            }
+        }
+
+        /**
+         * Finds the slot holding an id, or the empty slot where it belongs.
+         *
+         * @param ids  the ids by slot
+         * @param rows the rows by slot
+         * @param id   the asset id
+         * @return the slot
+         */
+        private static int slotOf(int[] ids, int[] rows, int id) {
+            int mask = ids.length - 1;
+            int hash = id * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (rows[slot] != 0 && ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * One record read from the end of a file: an asset to add or replace, or the id of an asset
+     * to remove.
+     */
+    private static final class TailRecord {
+        /** The asset to add or replace, or null for a removal. */
+        final Asset asset;
+        /** The id to remove, if {@link #asset} is null. */
+        final int removedId;
+
+        TailRecord(Asset asset, int removedId) {
+            this.asset = asset;
+            this.removedId = removedId;
+        }
+    }
+
+    /** What a read of the files learnt about them, for the repository to take on. */
+    private static final class FileState {
+        /** Sizes and identities of the files when the read began. */
+        long baseSize;
+        long journalSize;
+        Object baseKey;
+        Object journalKey;
+        /** Whether the base file has an id header and a summary slot. */
+        boolean hasHeader;
+        /** The next id after every id read, for a base file without a header. */
+        int legacyNextId;
+    }
+
+    /** Loaded repositories keyed by username, least recently used first. */
+    private static final Map<String, AssetRepository> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AssetRepository> eldest) {
+            if (size() <= CACHE_SIZE) return false;
+            AssetRepository evicted = eldest.getValue();
+            if (evicted.holders > 0) {
+                kept.put(evicted.username, evicted);
+            } else {
+                evicted.drop();
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Repositories pushed out of {@link #cache} while a session still holds them, so that
+     * {@link #open(String)} hands out the same instance rather than a second live one. Guarded
+     * by the lock on {@link #cache}.
+     */
+    private static final Map<String, AssetRepository> kept = new HashMap<>();
+
+    /** Locks on users' files, by username, shared by every repository in this process. */
+    private static final Map<String, FileMutex> fileMutexes = new ConcurrentHashMap<>();
+
+    /** Runs journal compactions for every repository, one at a time. */
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "asset-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Number of sessions holding this repository; guarded by the lock on {@link #cache}. */
+    private int holders;
+
+    /**
+     * Whether this repository has left the cache with nobody holding it, so it no longer
+     * watches its files; guarded by the lock on {@link #cache}.
+     */
+    private boolean dropped;
+
+    private final AssetTable assets = new AssetTable();
+    private final String username;
+    private final Path journalPath;
+
+    /** Held while this user's files are written. */
+    private final FileMutex fileMutex;
+
+    /**
+     * Held by this repository's own file work: writing unsaved changes, applying or re-reading
+     * the files, reserving ids and compacting. The writers below belong to whoever holds it.
+     */
+    private final ReentrantLock fileWork = new ReentrantLock();
+
+    /** Format of the base file; changed only while holding {@link #fileWork} and the monitor. */
+    private Format format;
+
+    /** The base file, in {@link #format}; changed only while holding {@link #fileWork} and the monitor. */
+    private Path basePath;
+
+    /** Appends new lines to the base file; opened on the first add and kept open. */
+    private Writer appender;
+
+    /** Identity of the file {@link #appender} writes to. */
+    private Object appenderKey;
+
+    /** Appends records to the journal; opened on the first edit and kept open. */
+    private Writer journal;
+
+    /** Identity of the file {@link #journal} writes to. */
+    private Object journalWriterKey;
+
+    /** Asset lines added but not yet appended to the base file. */
+    private final StringBuilder unsavedBase = new StringBuilder();
+
+    /** Journal records not yet appended to the journal. */
+    private final StringBuilder unsavedJournal = new StringBuilder();
+
+    /** Whether the unsaved records include a batch that must be synced to disk. */
+    private boolean unsavedSync;
+
+    /** Whether a background compaction has been queued and not finished yet. */
+    private boolean compactionPending;
+
+    /** The next id to hand out. */
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    /** First id past the current reservation; {@link #nextId} must stay below it. */
+    private volatile int idLimit = 1;
+
+    /** Start of a block reserved ahead of time that does not follow on from the current one, or -1. */
+    private int nextBlock = -1;
+
+    /** Key under which the next block of ids is reserved on the {@link PersistenceQueue}. */
+    private final Object idReservation = new Object();
+
+    /** Whether the base file exists and carries an id header. */
+    private boolean hasHeader;
+
+    /** For a base file without a header, one past the largest id found when it was loaded. */
+    private int legacyNextId;
+
+    /** Writes the summary slot in the base file; opened on the first change and kept open. */
+    private FileChannel summaryChannel;
+
+    /** Bytes of the base file reflected in memory, or -1 after a failed write. */
+    private long knownBaseSize;
+
+    /** Bytes of the journal reflected in memory, or -1 after a failed write. */
+    private long knownJournalSize;
+
+    /** Identity of the base file that was read, to notice when it is replaced; null if none. */
+    private Object baseKey;
+
+    /** Identity of the journal that was read; null if none. */
+    private Object journalKey;
+
+    /** Called after changes made by another process have been applied. */
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    /** Registered with {@link DataWatcher} for this user's files. */
+    private final Runnable fileWatch = this::refresh;
+
+    /** Whether some thread has begun loading the portfolio. */
+    private boolean loadStarted;
+
+    /** Whether the portfolio has been loaded in full. */
+    private volatile boolean loaded;
+
+    /** Released when loading finishes or is cancelled. */
+    private final CountDownLatch loadFinished = new CountDownLatch(1);
+
+    /**
+     * Returns the shared repository for a user, loading it from file if it is not cached.
+     * If another thread is loading it, this waits for that load to finish.
+     *
+     * @param username the user whose assets are wanted
+     * @return the user's repository, fully loaded
+     */
+    static AssetRepository forUser(String username) {
+        while (true) {
+            AssetRepository repository = open(username);
+            if (repository.load(null)) return repository;
+            // A progressive load was cancelled and the repository dropped; start again
+        }
+    }
+
+    /**
+     * Returns the shared repository for a user without reading anything. It may be loaded
+     * already, being loaded by another thread, or not loaded yet; see {@link #load(LoadListener)}.
+     *
+     * @param username the user whose assets are wanted
+     * @return the user's repository
+     */
+    static AssetRepository open(String username) {
+        synchronized (cache) {
+            AssetRepository repository = cached(username);
+            if (repository == null) {
+                repository = new AssetRepository(username, false, true);
+            }
+            kept.remove(username, repository);
+            cache.put(username, repository);
+            return repository;
+        }
+    }
+
+    /**
+     * Returns the shared repository for a user like {@link #open(String)}, and counts the
+     * caller as holding it: until {@link #release()}, it keeps watching its files even if it
+     * leaves the cache, and later calls get this same instance.
+     *
+     * @param username the user whose assets are wanted
+     * @return the user's repository
+     */
+    static AssetRepository hold(String username) {
+        synchronized (cache) {
+            AssetRepository repository = open(username);
+            repository.holders++;
+            return repository;
+        }
+    }
+
+    /**
+     * Ends one hold from {@link #hold(String)}. A repository that has left the cache stops
+     * watching its files once nobody holds it.
+     */
+    void release() {
+        synchronized (cache) {
+            holders--;
+            if (holders == 0 && kept.remove(username, this)) {
+                drop();
+            }
+        }
+    }
+
+    /**
+     * Returns the repository this process has for a user, cached or held, without counting
+     * it as recently used. The caller holds the lock on {@link #cache}.
+     *
+     * @param username the user
+     * @return the repository, or null if there is none
+     */
+    private static AssetRepository cached(String username) {
+        AssetRepository repository = cache.get(username);
+        return repository != null ? repository : kept.get(username);
+    }
+
+    /**
+     * Stops watching this user's files for good, once the repository has left the cache and
+     * nobody holds it. The caller holds the lock on {@link #cache}.
+     */
+    private void drop() {
+        dropped = true;
+        stopWatching();
+    }
+
+    /**
+     * Initializes the repository with a user-specific file and loads it.
+     *
+     * @param username the username to personalize file name
+     */
+    AssetRepository(String username) {
+        this(username, true, true);
+    }
+
+    /**
+     * Initializes the repository with a user-specific file.
+     *
+     * @param username the username to personalize file name
+     * @param load     whether to load it now rather than through {@link #load(LoadListener)}
+     * @param shared   whether to share the user's file lock with the other repositories in
+     *                 this process; a repository that only reads, and is dropped afterwards,
+     *                 gets one of its own that it never takes, so nothing is kept per user
+     */
+    private AssetRepository(String username, boolean load, boolean shared) {
+        this.username = username;
+        this.format = formatFor(username);
+        this.basePath = pathFor(username, format);
+        this.journalPath = journalFor(username);
+        Path lockPath = Paths.get("assets_" + username + ".lock");
+        this.fileMutex = shared ? fileMutexes.computeIfAbsent(username, name -> new FileMutex(lockPath))
+                : new FileMutex(lockPath);
+        if (load) {
+            load(null);
+        }
+    }
+
+    /**
+     * Loads the portfolio unless it is loaded already. Rows become visible through
+     * {@link #size()} and {@link #getAsset(int)} batch by batch as they are read, and a listener
+     * hears about each batch. Changes and queries by id, type, date or name must wait until
+     * {@link #isLoaded()} is true. If another thread is already loading, this waits for it.
+     *
+     * @param listener told about each batch and able to cancel the load, or null
+     * @return true once loaded, or false if the load was cancelled; a cancelled repository is
+     *         dropped from the cache and must not be used
+     */
+    boolean load(LoadListener listener) {
+        boolean loadHere;
+        synchronized (this) {
+            loadHere = !loadStarted;
+            loadStarted = true;
+        }
+        if (loadHere) {
+            boolean complete = loadFromFile(listener);
+            if (complete) {
+                finishLoading();
+            } else {
+                synchronized (cache) {
+                    cache.remove(username, this);
+                    kept.remove(username, this);
+                }
+            }
+            loaded = complete;
+            loadFinished.countDown();
+            return complete;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loadFinished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return loaded;
+    }
+
+    /**
+     * Checks whether every row has been read.
+     *
+     * @return true once {@link #load(LoadListener)} has finished without being cancelled
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Rejects an operation that needs the whole portfolio while it is still loading.
+     *
+     * @throws IllegalStateException if the portfolio is not loaded yet
+     */
+    private void checkLoaded() {
+        if (!loaded) {
+            throw new IllegalStateException("The portfolio of " + username + " is still loading");
+        }
+    }
+
+    /**
+     * Sets up indexes, the summary slot, file watching and compaction once every row is in,
+     * and reserves the first block of ids, adding the id header to a file from before it
+     * existed, so that none of this happens later on a screen's thread.
+     */
+    private void finishLoading() {
+        fileWork.lock();
+        try {
+            synchronized (this) {
+                assets.enableIndex();
+            }
+            reserveIds();
+            try {
+                if (hasHeader && readSummary(basePath, format, journalPath) == null) {
+                    persistSummary();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            fileWork.unlock();
+        }
+        synchronized (cache) {
+            // Dropped from the cache while it loaded; nobody would ever stop the watch
+            if (!dropped) {
+                for (String fileName : watchedFiles()) {
+                    DataWatcher.watch(fileName, fileWatch);
+                }
+            }
+        }
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Reads a user's stored portfolio summary without loading the portfolio. A repository
+     * already loaded in this process answers from memory instead.
+     *
+     * @param username the user
+     * @return the summary, or null if none is stored or it does not match the files
+     */
+    static PortfolioSummary peekSummary(String username) {
+        AssetRepository loaded;
+        synchronized (cache) {
+            loaded = cached(username);
+        }
+        if (loaded != null && loaded.isLoaded()) {
+            return loaded.summary();
+        }
+        try {
+            Format format = formatFor(username);
+            return readSummary(pathFor(username, format), format, journalFor(username));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the portfolio's running totals, remembered in the {@link ValuationCache} until
+     * the portfolio changes.
+     *
+     * @return the summary
+     */
+    public synchronized PortfolioSummary summary() {
+        return ValuationCache.get(username, assets.version(), "summary", assets::summary);
+    }
+
+    /**
+     * Returns a stamp for the portfolio's current contents. It is larger after every change,
+     * whether made here or picked up from the files, and stays the same otherwise.
+     *
+     * @return the version stamp
+     */
+    public synchronized long version() {
+        return assets.version();
+    }
+
+    /**
+     * Adds a listener called after changes made to the files by another process have been
+     * applied. Listeners run on a background thread.
+     *
+     * @param listener the listener
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Removes a change listener.
+     *
+     * @param listener the listener
+     */
+    public void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Brings the portfolio up to date with its files. Appended records are read and applied;
+     * a file that shrank or was replaced is read again in full. Called by the file watcher,
+     * and harmless to call when nothing has changed.
+     *
+     * @return true if anything changed, in which case the change listeners have been called
+     */
+    public boolean refresh() {
+        boolean changed;
+        fileWork.lock();
+        try {
+            try {
+                changed = needsReload() ? reload() : applyTails();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            if (changed) {
+                persistSummary();
+            }
+        } finally {
+            fileWork.unlock();
+        }
+        if (changed) {
+            fireChanged();
+        }
+        return changed;
+    }
+
+    /**
+     * Gets all stored assets.
+     *
+     * @return a read-only list of assets that follows later changes
+     */
+    public synchronized List<Asset> getAssets() {
+        return assets.view();
+    }
+
+    /**
+     * Returns the number of assets.
+     *
+     * @return the count
+     */
+    public synchronized int size() {
+        return assets.size();
+    }
+
+    /**
+     * Returns the asset at a position in {@link #getAssets()} order, safely while the file
+     * watcher may be changing the portfolio.
+     *
+     * @param index the position
+     * @return the asset, or null if there is no longer an asset at that position
+     */
+    public synchronized Asset getAsset(int index) {
+        return index >= 0 && index < assets.size() ? assets.asset(index) : null;
+    }
+
+    /**
+     * Works out the Zakat due on the portfolio as of today. The result is remembered in the
+     * {@link ValuationCache} for the same rules and day until the portfolio changes.
+     *
+     * @param engine the rules to apply
+     * @return the amount due on each asset, in {@link #getAssets()} order, and in total
+     */
+    public synchronized ZakatEngine.Result zakat(ZakatEngine engine) {
+        checkLoaded();
+        LocalDate today = LocalDate.now();
+        return ValuationCache.get(username, assets.version(), List.of("zakat", engine.rules(), today),
+                () -> engine.evaluate(assets, today));
+    }
+
+    /**
+     * Works out the Zakat due on a user's portfolio without keeping it. A cached portfolio that
+     * is loaded is used as it is; otherwise the files are read into a private table that is not
+     * indexed, watched or cached, and is dropped afterwards with nothing of it kept, so a batch
+     * over many users does not grow. Unlike a normal load, a file that cannot be read fails the
+     * call instead of leaving assets out.
+     *
+     * @param username the user
+     * @param engine   the rules to apply
+     * @return the amount due on each asset and in total
+     * @throws IOException if the user's files cannot be read
+     */
+    static ZakatEngine.Result zakatFor(String username, ZakatEngine engine) throws IOException {
+        AssetRepository cached;
+        synchronized (cache) {
+            cached = cached(username);
+        }
+        if (cached != null && cached.isLoaded()) {
+            return cached.zakat(engine);
+        }
+        AssetRepository once = new AssetRepository(username, false, false);
+        once.readFiles(once.assets, once.format, once.basePath, null, true);
+        synchronized (once) {
+            return engine.evaluate(once.assets, LocalDate.now());
+        }
+    }
+
+    /**
+     * Sums the values of all assets.
+     *
+     * @return the total value
+     */
+    public synchronized double totalValue() {
+        return assets.totalValue();
+    }
+
+    /**
+     * Sums the values of the assets of one type.
+     *
+     * @param type the asset type
+     * @return the total value of that type
+     */
+    public synchronized double totalValue(String type) {
+        return assets.totalValue(type);
+    }
+
+    /**
+     * Finds the assets matching every given criterion, using the secondary indexes. The most
+     * selective criterion is used to pick candidates, which are then checked against the rest.
+     *
+     * @param type         the asset type, or null for any
+     * @param boughtFrom   the earliest purchase date, inclusive, or null for no lower bound
+     * @param boughtBefore the purchase date to stop before, or null for no upper bound; assets
+     *                     whose date cannot be read never match a date bound
+     * @param namePrefix   the start of the name, ignoring case, or null for any
+     * @return the matching assets in portfolio order
+     */
+    public synchronized List<Asset> findAssets(String type, LocalDate boughtFrom, LocalDate boughtBefore,
+                                               String namePrefix) {
+        checkLoaded();
+        List<Set<Integer>> criteria = new ArrayList<>();
+        if (type != null) {
+            criteria.add(assets.idsOfType(type));
+        }
+        if (boughtFrom != null || boughtBefore != null) {
+            int from = boughtFrom == null ? Asset.UNKNOWN_DAY + 1 : (int) boughtFrom.toEpochDay();
+            int to = boughtBefore == null ? Integer.MAX_VALUE : (int) boughtBefore.toEpochDay();
+            criteria.add(assets.idsBoughtBetween(from, to));
+        }
+        if (namePrefix != null) {
+            criteria.add(assets.idsWithNamePrefix(namePrefix));
+        }
+        if (criteria.isEmpty()) {
+            return new ArrayList<>(assets.view());
+        }
+        criteria.sort(Comparator.comparingInt(Set::size));
+
+        int[] rows = new int[criteria.get(0).size()];
+        int count = 0;
+        candidates:
+        for (Integer id : criteria.get(0)) {
+            for (int c = 1; c < criteria.size(); c++) {
+                if (!criteria.get(c).contains(id)) continue candidates;
+            }
+            rows[count++] = assets.rowOf(id);
+        }
+        Arrays.sort(rows, 0, count);
+        List<Asset> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(assets.asset(rows[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the format of this store's base file.
+     *
+     * @return the format
+     */
+    public synchronized Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Allocates a new asset id for this user from the block reserved in memory. Once half of
+     * the block is used the next one is reserved on the {@link PersistenceQueue} writer; only if
+     * ids are taken faster than that does this wait for a reservation itself.
+     *
+     * @return an id no other asset of this user has had
+     */
+    public int nextId() {
+        while (true) {
+            int id = nextId.get();
+            int limit = idLimit;
+            if (id < limit) {
+                if (nextId.compareAndSet(id, id + 1)) {
+                    if (limit - id == ID_BLOCK / 2) {
+                        PersistenceQueue.submit(idReservation, this::reserveIds);
+                    }
+                    return id;
+                }
+            } else {
+                takeNextBlock();
+            }
+        }
+    }
+
+    /**
+     * Moves on to the block reserved ahead of time, reserving one now if there is none.
+     */
+    private void takeNextBlock() {
+        fileWork.lock();
+        try {
+            synchronized (this) {
+                checkLoaded();
+                if (nextId.get() < idLimit) return;
+            }
+            reserveIds();
+            synchronized (this) {
+                if (nextId.get() >= idLimit && nextBlock >= 0) {
+                    nextId.set(nextBlock);
+                    idLimit = nextBlock + ID_BLOCK;
+                    nextBlock = -1;
+                }
+            }
+        } finally {
+            fileWork.unlock();
+        }
+    }
+
+    /**
+     * Adds an asset to the list and queues it to be appended to the file.
+     *
+     * @param asset the asset to add
+     * @throws IllegalArgumentException if an asset with the same id is already in the portfolio
+     */
+    public void addAsset(Asset asset) {
+        synchronized (this) {
+            checkLoaded();
+            if (assets.rowOf(asset.id) >= 0) {
+                throw new IllegalArgumentException("Asset id " + asset.id + " is already in use");
+            }
+            assets.add(asset);
+            if (format == Format.COLUMNAR) {
+                unsavedJournal.append(UPSERT).append(asset.toFileString()).append(System.lineSeparator());
+            } else {
+                unsavedBase.append(asset.toFileString()).append(System.lineSeparator());
+            }
+        }
+        whenSaved();
+    }
+
+    /**
+     * Replaces the asset with a given id and journals the new version. The asset is found
+     * through the id index, so this takes constant time however large the portfolio is.
+     *
+     * @param id       the id of the asset to update
+     * @param newAsset the updated asset, which must keep the same id
+     * @return true if an asset had that id
+     * @throws IllegalArgumentException if the new asset has a different id
+     */
+    public boolean updateAsset(int id, Asset newAsset) {
+        if (newAsset.id != id) {
+            throw new IllegalArgumentException("Asset id " + newAsset.id + " does not match " + id);
+        }
+        synchronized (this) {
+            checkLoaded();
+            int row = assets.rowOf(id);
+            if (row < 0) return false;
+            assets.set(row, newAsset);
+            unsavedJournal.append(UPSERT).append(newAsset.toFileString()).append(System.lineSeparator());
+        }
+        whenSaved();
+        return true;
+    }
+
+    /**
+     * Removes the asset with a given id and journals a tombstone for it. The last asset takes
+     * the removed one's place, so this takes constant time and the order of
+     * {@link #getAssets()} changes.
+     *
+     * @param id the id of the asset to remove
+     * @return true if an asset had that id
+     */
+    public boolean removeAsset(int id) {
+        synchronized (this) {
+            checkLoaded();
+            int row = assets.rowOf(id);
+            if (row < 0) return false;
+            unsavedJournal.append(TOMBSTONE).append(assets.remove(row)).append(System.lineSeparator());
+        }
+        whenSaved();
+        return true;
+    }
+
+    /**
+     * Applies a batch in order and queues it to be persisted with one journal write and one
+     * sync, instead of one write per change. Updates and removals of ids that are not in the
+     * portfolio are skipped, as {@link #updateAsset} and {@link #removeAsset} would skip them.
+     *
+     * @param batch the operations
+     * @return the number of operations applied
+     * @throws IllegalArgumentException if an add uses an id that is in the portfolio at that
+     *                                  point of the batch; nothing is applied or journaled then
+     */
+    public int commit(Batch batch) {
+        int applied = 0;
+        synchronized (this) {
+            checkLoaded();
+            checkAdds(batch);
+            String lineBreak = System.lineSeparator();
+            for (int i = 0; i < batch.size; i++) {
+                Asset asset = batch.assets.get(i);
+                if (batch.kinds[i] == Batch.ADD) {
+                    assets.add(asset);
+                } else {
+                    int row = assets.rowOf(batch.ids[i]);
+                    if (row < 0) continue;
+                    if (batch.kinds[i] == Batch.UPDATE) {
+                        assets.set(row, asset);
+                    } else {
+                        assets.remove(row);
+                    }
+                }
+                if (asset != null) {
+                    unsavedJournal.append(UPSERT).append(asset.toFileString()).append(lineBreak);
+                } else {
+                    unsavedJournal.append(TOMBSTONE).append(batch.ids[i]).append(lineBreak);
+                }
+                applied++;
+            }
+            if (applied == 0) return 0;
+            unsavedSync = true;
+        }
+        whenSaved();
+        return applied;
+    }
+
+    /**
+     * Rejects a batch that adds an id the portfolio already has, counting the batch's own
+     * earlier adds and removals, before any of it is applied.
+     *
+     * @param batch the operations
+     * @throws IllegalArgumentException if an add reuses an id
+     */
+    private void checkAdds(Batch batch) {
+        Map<Integer, Boolean> present = new HashMap<>();
+        for (int i = 0; i < batch.size; i++) {
+            int id = batch.ids[i];
+            if (batch.kinds[i] == Batch.ADD) {
+                if (present.getOrDefault(id, assets.rowOf(id) >= 0)) {
+                    throw new IllegalArgumentException("Asset id " + id + " is already in use");
+                }
+                present.put(id, true);
+            } else if (batch.kinds[i] == Batch.REMOVE) {
+                present.put(id, false);
+            }
+        }
+    }
+
+    /**
+     * Queues a write of every change not yet on disk, joining the write already waiting in
+     * the {@link PersistenceQueue} if there is one. Changes are queued this way as they are
+     * made; screens call this to find out when their change has been saved.
+     *
+     * @return completes once the changes made so far have been written, or fails if the write fails
+     */
+    public CompletableFuture<Void> whenSaved() {
+        return PersistenceQueue.submit(this, this::saveUnsaved);
+    }
+
+    /**
+     * Folds the journal into a fresh base file straight away, on the calling thread.
+     */
+    public void compact() {
+        try {
+            compactNow();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rewrites the store in another format. The new base file holds every asset, so the
+     * journal and the old base file are deleted once it is in place.
+     *
+     * Unlike other file work this holds the monitor throughout, since the rows must not change
+     * while they are written out; it is meant for maintenance, not for a screen's thread.
+     *
+     * @param target the format to switch to
+     * @throws IOException if the new file cannot be written
+     */
+    public void convertTo(Format target) throws IOException {
+        fileWork.lock();
+        try {
+            fileMutex.lock();
+            try {
+                synchronized (this) {
+                    checkLoaded();
+                    if (target == format) return;
+                    Path targetPath = pathFor(username, target);
+                    Path tmp = targetPath.resolveSibling(targetPath.getFileName() + ".tmp");
+                    writeBase(target, tmp, assets.view(), persistedNextId());
+                    // The new file holds the unsaved changes too
+                    unsavedBase.setLength(0);
+                    unsavedJournal.setLength(0);
+                    appender = closeQuietly(appender);
+                    journal = closeQuietly(journal);
+                    summaryChannel = closeQuietly(summaryChannel);
+                    Files.move(tmp, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Files.deleteIfExists(journalPath);
+                    Files.deleteIfExists(basePath);
+                    format = target;
+                    basePath = targetPath;
+                    hasHeader = true;
+                }
+                filesRewritten();
+            } finally {
+                fileMutex.unlock();
+            }
+        } finally {
+            fileWork.unlock();
+        }
+    }
+
+    /**
+     * Writes the running totals over the summary slot, with the file sizes they reflect, or a
+     * placeholder if a write failed and the sizes are not known. The caller holds
+     * {@link #fileWork}; the totals are taken under the monitor and written without it.
+     */
+    private void persistSummary() {
+        byte[] line;
+        synchronized (this) {
+            // Until the unsaved changes are written the slot keeps describing the files as they are
+            if (!hasHeader || unsavedBase.length() > 0 || unsavedJournal.length() > 0) return;
+            line = knownBaseSize >= 0 && knownJournalSize >= 0
+                    ? summary().encode(knownBaseSize, knownJournalSize)
+                    : PortfolioSummary.placeholder();
+        }
+        try {
+            fileMutex.lock();
+            try {
+                if (summaryChannel == null) {
+                    summaryChannel = FileChannel.open(basePath, StandardOpenOption.WRITE);
+                }
+                PortfolioSummary.write(summaryChannel, summaryOffset(format), line);
+            } finally {
+                fileMutex.unlock();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            summaryChannel = closeQuietly(summaryChannel);
+        }
+    }
+
+    /**
+     * Records the sizes of files this repository has just written in full, and stores the
+     * totals that go with them. The caller holds {@link #fileWork}.
+     */
+    private void filesRewritten() {
+        long baseSize = sizeOf(basePath);
+        long journalSize = sizeOf(journalPath);
+        Object currentBaseKey = fileKey(basePath);
+        Object currentJournalKey = fileKey(journalPath);
+        synchronized (this) {
+            knownBaseSize = baseSize;
+            knownJournalSize = journalSize;
+            baseKey = currentBaseKey;
+            journalKey = currentJournalKey;
+        }
+        persistSummary();
+    }
+
+    /**
+     * Checks whether the files have changed in a way that cannot be applied as a delta: the
+     * base file or journal shrank or was replaced, the store switched format, a columnar base
+     * file changed at all, or a write of ours failed. The caller holds {@link #fileWork}, so
+     * only the rows can change meanwhile, not what is known about the files.
+     *
+     * @return true if the files must be read again in full
+     */
+    private boolean needsReload() {
+        if (knownBaseSize < 0 || knownJournalSize < 0 || formatFor(username) != format) return true;
+        if (!Objects.equals(fileKey(basePath), baseKey)) return true;
+        long baseSize = sizeOf(basePath);
+        if (baseSize < knownBaseSize || format == Format.COLUMNAR && baseSize != knownBaseSize) return true;
+        Object currentJournalKey = fileKey(journalPath);
+        if (journalKey != null && currentJournalKey != null && !journalKey.equals(currentJournalKey)) return true;
+        return sizeOf(journalPath) < knownJournalSize;
+    }
+
+    /**
+     * Reads the files again if another process has replaced them since they were read.
+     */
+    private void reloadIfReplaced() {
+        boolean reloaded = false;
+        fileWork.lock();
+        try {
+            if (needsReload()) {
+                reloaded = reload();
+            }
+        } finally {
+            fileWork.unlock();
+        }
+        if (reloaded) {
+            fireChanged();
+        }
+    }
+
+    /**
+     * Reads the files again from scratch into a table of its own, without holding the monitor,
+     * then swaps it in under the monitor. If the rows were changed in the meantime, those
+     * changes are written first and the files read again, so none is lost in the swap. The
+     * caller holds {@link #fileWork}.
+     *
+     * @return true, since the portfolio may have changed in any way
+     */
+    private boolean reload() {
+        while (true) {
+            try {
+                writeUnsaved();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            long version = version();
+            appender = closeQuietly(appender);
+            journal = closeQuietly(journal);
+            summaryChannel = closeQuietly(summaryChannel);
+            Format currentFormat = formatFor(username);
+            Path currentBase = pathFor(username, currentFormat);
+            AssetTable table = new AssetTable();
+            FileState state = readFilesQuietly(table, currentFormat, currentBase, null);
+            if (loaded) {
+                table.enableIndex();
+            }
+            synchronized (this) {
+                if (version() != version || unsavedBase.length() > 0 || unsavedJournal.length() > 0) {
+                    // Changed while the files were being read; write the change and read again
+                    continue;
+                }
+                assets.replaceWith(table);
+                format = currentFormat;
+                basePath = currentBase;
+                adopt(state);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Applies whatever has been appended to the base file and the journal since they were
+     * last read. The new bytes are read and parsed without the monitor and applied under it.
+     * The caller holds {@link #fileWork}.
+     *
+     * @return true if any record was applied
+     * @throws IOException if a file cannot be read
+     */
+    private boolean applyTails() throws IOException {
+        boolean changed = false;
+        if (format == Format.CSV && sizeOf(basePath) > knownBaseSize) {
+            List<TailRecord> records = new ArrayList<>();
+            long read = readTail(basePath, knownBaseSize, false, records);
+            synchronized (this) {
+                applyRecords(records);
+                knownBaseSize += read;
+            }
+            changed = !records.isEmpty();
+        }
+        if (sizeOf(journalPath) > knownJournalSize) {
+            List<TailRecord> records = new ArrayList<>();
+            long read = readTail(journalPath, knownJournalSize, true, records);
+            synchronized (this) {
+                applyRecords(records);
+                knownJournalSize += read;
+            }
+            changed |= !records.isEmpty();
+        }
+        Object currentJournalKey = fileKey(journalPath);
+        synchronized (this) {
+            journalKey = currentJournalKey;
+        }
+        return changed;
+    }
+
+    /**
+     * Parses the complete lines of a file from an offset on. Asset lines and upserts become
+     * records that replace the asset with the same id or add it; tombstones become records that
+     * remove it. Lines this repository wrote itself may be seen again here, which is harmless
+     * since applying them changes nothing.
+     *
+     * @param path    the file
+     * @param from    the offset to start at, at the beginning of a line
+     * @param journal whether the lines are journal records rather than asset lines
+     * @param records receives the parsed records, in file order
+     * @return the number of bytes read, up to the end of the last complete line
+     * @throws IOException if the file cannot be read
+     */
+    private static long readTail(Path path, long from, boolean journal, List<TailRecord> records) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bytes = ByteBuffer.allocate((int) Math.min(channel.size() - from, Integer.MAX_VALUE - 8));
+            while (bytes.hasRemaining() && channel.read(bytes, from + bytes.position()) > 0) {
+                // keep reading until the buffer is full or the file ends
+            }
+        }
+        AssetRecordParser parser = new AssetRecordParser();
+        int end = bytes.position();
+        int start = 0;
+        for (int pos = 0; pos < end; pos++) {
+            if (bytes.get(pos) != '\n') continue;
+            int lineEnd = pos > start && bytes.get(pos - 1) == '\r' ? pos - 1 : pos;
+            if (!journal) {
+                if (parser.parse(bytes, start, lineEnd)) records.add(new TailRecord(parser.toAsset(), 0));
+            } else if (lineEnd - start > 2 && bytes.get(start + 1) == ',') {
+                byte kind = bytes.get(start);
+                if (kind == UPSERT.charAt(0) && parser.parse(bytes, start + 2, lineEnd)) {
+                    records.add(new TailRecord(parser.toAsset(), 0));
+                } else if (kind == TOMBSTONE.charAt(0)) {
+                    records.add(new TailRecord(null, parseId(bytes, start + 2, lineEnd)));
+                }
+            }
+            start = pos + 1;
+        }
+        return start;
+    }
+
+    /**
+     * Applies records read by {@link #readTail}, in order. The caller holds the monitor.
+     *
+     * @param records the records
+     */
+    private void applyRecords(List<TailRecord> records) {
+        for (TailRecord record : records) {
+            if (record.asset != null) {
+                upsert(record.asset);
+            } else {
+                int row = assets.rowOf(record.removedId);
+                if (row >= 0) assets.remove(row);
+            }
+        }
+    }
+
+    /**
+     * Replaces the asset with the same id, or adds it if there is none.
+     *
+     * @param asset the asset
+     */
+    private void upsert(Asset asset) {
+        int row = assets.rowOf(asset.id);
+        if (row < 0) {
+            assets.add(asset);
+        } else {
+            assets.set(row, asset);
+        }
+    }
+
+    /**
+     * Parses the id of a tombstone record.
+     *
+     * @param bytes the record bytes
+     * @param start the first digit
+     * @param end   one past the last byte
+     * @return the id, or -1 if the text is not a number
+     */
+    private static int parseId(ByteBuffer bytes, int start, int end) {
+        try {
+            return Integer.parseInt(new String(bytes.array(), start, end - start, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Calls every change listener.
+     */
+    private void fireChanged() {
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns the names of the files this repository watches: both possible base files and
+     * the journal.
+     *
+     * @return the file names
+     */
+    private List<String> watchedFiles() {
+        return List.of(pathFor(username, Format.CSV).toString(), pathFor(username, Format.COLUMNAR).toString(),
+                journalPath.toString());
+    }
+
+    /**
+     * Stops watching this user's files.
+     */
+    private void stopWatching() {
+        for (String fileName : watchedFiles()) {
+            DataWatcher.unwatch(fileName, fileWatch);
+        }
+    }
+
+    /**
+     * Returns a file's identity, which changes when the file is replaced rather than written to.
+     *
+     * @param path the file
+     * @return the identity, or null if the file does not exist or the file system has none
+     */
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a stored summary, checking it against the current file sizes.
+     *
+     * @param base    the base file
+     * @param format  its format
+     * @param journal the journal
+     * @return the summary, or null if there is none or it is out of date
+     * @throws IOException if the base file cannot be read
+     */
+    private static PortfolioSummary readSummary(Path base, Format format, Path journal) throws IOException {
+        if (!Files.exists(base)) return null;
+        try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+            return PortfolioSummary.read(channel, summaryOffset(format), channel.size(), sizeOf(journal));
+        }
+    }
+
+    /**
+     * Checks whether a base file has a summary slot; files written before it existed do not.
+     *
+     * @param base   the base file
+     * @param format its format
+     * @return true if the slot is present
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean hasSummarySlot(Path base, Format format) throws IOException {
+        try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+            return PortfolioSummary.hasSlot(channel, summaryOffset(format));
+        }
+    }
+
+    /**
+     * Returns where the summary slot sits in a base file.
+     *
+     * @param format the file's format
+     * @return the byte offset
+     */
+    private static long summaryOffset(Format format) {
+        return format == Format.COLUMNAR ? ColumnarAssetFile.SUMMARY_OFFSET : AssetFileLoader.SUMMARY_OFFSET;
+    }
+
+    /**
+     * Reserves the next block of ids by advancing the counter in the base file's header,
+     * holding the file lock so a compaction cannot replace the header in the meantime. The
+     * block extends the current one if no other process reserved ids in between, and otherwise
+     * waits in {@link #nextBlock}. Does nothing if a block is already waiting or most of the
+     * current one is unused. If the header cannot be written the block is taken from memory
+     * only, which keeps ids unique within this process. Only this repository's file work
+     * waits meanwhile; the monitor is held just to read and set the block.
+     */
+    private void reserveIds() {
+        fileWork.lock();
+        try {
+            int current;
+            synchronized (this) {
+                if (nextBlock >= 0 || idLimit - nextId.get() > ID_BLOCK / 2) return;
+                current = idLimit;
+            }
+            int start = current;
+            try {
+                fileMutex.lock();
+                try {
+                    ensureHeader();
+                    try (FileChannel channel = FileChannel.open(basePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        start = Math.max(readNextId(channel, format), current);
+                        writeNextId(channel, format, start + ID_BLOCK);
+                        channel.force(false);
+                    }
+                } finally {
+                    fileMutex.unlock();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                if (start == idLimit) {
+                    idLimit = start + ID_BLOCK;
+                } else {
+                    nextBlock = start;
+                }
+            }
+        } finally {
+            fileWork.unlock();
+        }
+    }
+
+    /**
+     * Makes sure the base file exists and has an id header, creating an empty file or
+     * rewriting one from before headers existed. The caller holds {@link #fileWork} and the
+     * file lock.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void ensureHeader() throws IOException {
+        if (hasHeader) return;
+        if (Files.exists(basePath)) {
+            compactNow();
+        } else {
+            writeBase(format, basePath, new AssetTable().view(), persistedNextId());
+            synchronized (this) {
+                hasHeader = true;
+            }
+            filesRewritten();
+        }
+    }
+
+    /**
+     * Works out the id to record in a header being written from scratch: never lower than
+     * what the current header says, what this process has reserved, or what an old file needs.
+     * The caller holds {@link #fileWork}.
+     *
+     * @return the next free id to record
+     * @throws IOException if the current header cannot be read
+     */
+    private int persistedNextId() throws IOException {
+        int recorded = -1;
+        if (hasHeader && Files.exists(basePath)) {
+            try (FileChannel channel = FileChannel.open(basePath, StandardOpenOption.READ)) {
+                recorded = readNextId(channel, format);
+            }
+        }
+        int reserved;
+        synchronized (this) {
+            reserved = Math.max(idLimit, nextBlock + ID_BLOCK);
+        }
+        return Math.max(Math.max(recorded, reserved), Math.max(legacyNextId, 1));
+    }
+
+    /**
+     * Reads the next free id from a base file's header.
+     *
+     * @param channel the base file
+     * @param format  its format
+     * @return the id, or -1 if the file has no header
+     * @throws IOException if the file cannot be read
+     */
+    private static int readNextId(FileChannel channel, Format format) throws IOException {
+        return format == Format.COLUMNAR ? ColumnarAssetFile.readNextId(channel) : AssetFileLoader.readNextId(channel);
+    }
+
+    /**
+     * Overwrites the next free id in a base file's header.
+     *
+     * @param channel the base file, open for writing
+     * @param format  its format
+     * @param id      the next free id
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeNextId(FileChannel channel, Format format, int id) throws IOException {
+        if (format == Format.COLUMNAR) {
+            ColumnarAssetFile.writeNextId(channel, id);
+        } else {
+            AssetFileLoader.writeNextId(channel, id);
+        }
+    }
+
+    /**
+     * Writes the unsaved changes, and syncs them to disk if a committed batch is among them.
+     * Runs on the {@link PersistenceQueue} writer thread; neither the write nor the sync holds
+     * the repository's monitor, so readers and changes on other threads do not wait for disk. If another process had
+     * replaced the files, the changes went to the files now in place and the portfolio is then
+     * read again from them.
+     *
+     * @throws IOException if the changes cannot be written or synced
+     */
+    private void saveUnsaved() throws IOException {
+        boolean sync;
+        synchronized (this) {
+            sync = unsavedSync;
+            unsavedSync = false;
+        }
+        fileWork.lock();
+        try {
+            writeUnsaved();
+        } finally {
+            fileWork.unlock();
+        }
+        reloadIfReplaced();
+        if (sync) {
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (NoSuchFileException e) {
+                // Already folded into a new base file by a compaction
+            }
+        }
+    }
+
+    /**
+     * Appends the unsaved asset lines to the base file and the unsaved records to the journal,
+     * then stores the totals and queues a compaction if the journal has grown large enough.
+     * The writes hold the file lock; a writer left open on a file another process has since
+     * replaced is reopened on the file now in place. On failure the changes stay in memory but
+     * are not retried; the file sizes are marked unknown so the files are read again before the
+     * next change. The caller holds {@link #fileWork}; the changes are taken from the buffers
+     * under the monitor and written without it.
+     *
+     * @throws IOException if a file cannot be written
+     */
+    private void writeUnsaved() throws IOException {
+        String base;
+        String records;
+        synchronized (this) {
+            if (unsavedBase.length() == 0 && unsavedJournal.length() == 0) return;
+            base = unsavedBase.toString();
+            records = unsavedJournal.toString();
+        }
+        fileMutex.lock();
+        try {
+            if (!base.isEmpty()) {
+                if (appender != null && !Objects.equals(fileKey(basePath), appenderKey)) {
+                    appender = closeQuietly(appender);
+                }
+                if (appender == null) {
+                    // A file from before the header is migrated on load, not here mid-write
+                    if (!Files.exists(basePath)) {
+                        ensureHeader();
+                    }
+                    appender = openAppender(basePath);
+                    appenderKey = fileKey(basePath);
+                }
+                long before = sizeOf(basePath);
+                writeText(appender, base);
+                long after = sizeOf(basePath);
+                synchronized (this) {
+                    if (before == knownBaseSize) {
+                        knownBaseSize = after;
+                    }
+                }
+            }
+            if (!records.isEmpty()) {
+                if (journal != null && !Objects.equals(fileKey(journalPath), journalWriterKey)) {
+                    journal = closeQuietly(journal);
+                }
+                if (journal == null) {
+                    journal = openAppender(journalPath);
+                    journalWriterKey = fileKey(journalPath);
+                }
+                long before = sizeOf(journalPath);
+                writeText(journal, records);
+                long after = sizeOf(journalPath);
+                synchronized (this) {
+                    if (before == knownJournalSize) {
+                        knownJournalSize = after;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            appender = closeQuietly(appender);
+            journal = closeQuietly(journal);
+            synchronized (this) {
+                knownBaseSize = -1;
+                knownJournalSize = -1;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                // Changes made during the write stay queued behind the ones written
+                unsavedBase.delete(0, base.length());
+                unsavedJournal.delete(0, records.length());
+            }
+            fileMutex.unlock();
+        }
+        persistSummary();
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Queues a background compaction once the journal is both large and a sizeable
+     * fraction of the base file.
+     */
+    private void maybeScheduleCompaction() {
+        long journalSize = sizeOf(journalPath);
+        if (journalSize < COMPACT_MIN_BYTES || journalSize * 2 < sizeOf(basePath)) return;
+        synchronized (this) {
+            if (compactionPending) return;
+            compactionPending = true;
+        }
+        compactor.execute(() -> {
+            try {
+                compactNow();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    compactionPending = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites the base file from the in-memory list and empties the journal.
+     * <p>
+     * The list is copied and the marks taken under the file lock, the copy is written without
+     * any lock, and the file lock is taken again only for the swap; the monitor is held just
+     * long enough to copy the rows and to update what is known about the files. Anything added
+     * or journaled while the copy was being written is carried over by copying the tails of
+     * both files past the recorded marks. The swap holds the file lock from the tail copy until
+     * the journal is gone, so no other process can append a record that the swap would then drop.
+     *
+     * @throws IOException if the new files cannot be written
+     */
+    private void compactNow() throws IOException {
+        AssetTable snapshot;
+        Format snapshotFormat;
+        Path snapshotBase;
+        long baseMark;
+        long journalMark;
+        fileWork.lock();
+        try {
+            fileMutex.lock();
+            try {
+                // Apply other processes' changes first, or the rewrite would drop them
+                refresh();
+                while (true) {
+                    // Unsaved changes are in the snapshot, so they must be in the files before the marks
+                    writeUnsaved();
+                    synchronized (this) {
+                        if (unsavedBase.length() == 0 && unsavedJournal.length() == 0) {
+                            snapshot = assets.copy();
+                            break;
+                        }
+                    }
+                }
+                snapshotFormat = format;
+                snapshotBase = basePath;
+                baseMark = sizeOf(basePath);
+                journalMark = sizeOf(journalPath);
+            } finally {
+                fileMutex.unlock();
+            }
+        } finally {
+            fileWork.unlock();
+        }
+
+        // Named uniquely, since another process may be compacting the same files
+        Path baseTmp = Files.createTempFile(snapshotBase.toAbsolutePath().getParent(),
+                snapshotBase.getFileName().toString(), ".compact");
+        try {
+            writeBase(snapshotFormat, baseTmp, snapshot.view(), 1);
+        } catch (IOException e) {
+            Files.deleteIfExists(baseTmp);
+            throw e;
+        }
+
+        boolean caughtUp;
+        fileWork.lock();
+        try {
+            fileMutex.lock();
+            try {
+                if (format != snapshotFormat || !basePath.equals(snapshotBase) || needsReload()) {
+                    // Converted or replaced while the copy was being written; the new files are complete
+                    Files.deleteIfExists(baseTmp);
+                    return;
+                }
+                // Records appended since the snapshot are copied below, so memory must have them too
+                caughtUp = applyTails();
+                appender = closeQuietly(appender);
+                journal = closeQuietly(journal);
+                summaryChannel = closeQuietly(summaryChannel);
+                if (format == Format.CSV) {
+                    appendTail(basePath, baseMark, baseTmp);
+                }
+                // The header is filled in last so that ids reserved during the copy are respected
+                try (FileChannel channel = FileChannel.open(baseTmp, StandardOpenOption.WRITE)) {
+                    writeNextId(channel, format, persistedNextId());
+                }
+                Files.move(baseTmp, basePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                if (sizeOf(journalPath) > journalMark) {
+                    Path journalTmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+                    Files.deleteIfExists(journalTmp);
+                    appendTail(journalPath, journalMark, journalTmp);
+                    Files.move(journalTmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(journalPath);
+                }
+                synchronized (this) {
+                    hasHeader = true;
+                }
+                filesRewritten();
+            } finally {
+                fileMutex.unlock();
+            }
+        } finally {
+            fileWork.unlock();
+        }
+        if (caughtUp) {
+            fireChanged();
+        }
+    }
+
+    /**
+     * Writes a complete base file.
+     *
+     * @param target the format to write
+     * @param path   the file to write
+     * @param list   the assets
+     * @param nextId the next free id, for the header
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeBase(Format target, Path path, List<Asset> list, int nextId) throws IOException {
+        if (target == Format.COLUMNAR) {
+            ColumnarAssetFile.write(path, list, nextId);
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(AssetFileLoader.header(nextId));
+            writer.write(new String(PortfolioSummary.placeholder(), StandardCharsets.US_ASCII));
+            for (Asset asset : list) {
+                writer.write(asset.toFileString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Picks a user's base file format: columnar if that file exists, CSV if the CSV file exists,
+     * otherwise the configured default.
+     *
+     * @param username the user
+     * @return the format
+     */
+    private static Format formatFor(String username) {
+        if (Files.exists(pathFor(username, Format.COLUMNAR))) return Format.COLUMNAR;
+        if (Files.exists(pathFor(username, Format.CSV))) return Format.CSV;
+        return DEFAULT_FORMAT.equalsIgnoreCase("columnar") ? Format.COLUMNAR : Format.CSV;
+    }
+
+    /**
+     * Returns a user's base file in a given format.
+     *
+     * @param username the user
+     * @param target   the format
+     * @return the path
+     */
+    private static Path pathFor(String username, Format target) {
+        return Paths.get("assets_" + username + target.extension);
+    }
+
+    /**
+     * Returns a user's journal file.
+     *
+     * @param username the user
+     * @return the path
+     */
+    private static Path journalFor(String username) {
+        return Paths.get("assets_" + username + ".journal");
+    }
+
+    /**
+     * Copies the bytes of a file past a mark onto the end of another file.
+     *
+     * @param source the file to copy from
+     * @param mark   the first byte to copy
+     * @param target the file to append to; created if missing
+     * @throws IOException if either file cannot be accessed
+     */
+    private static void appendTail(Path source, long mark, Path target) throws IOException {
+        long size = sizeOf(source);
+        if (size <= mark) return;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.APPEND)) {
+            for (long copied = 0; copied < size - mark; ) {
+                copied += in.transferTo(mark + copied, size - mark - copied, out);
+            }
+        }
+    }
+
+    /**
+     * Returns the size of a file, or 0 if it does not exist.
+     *
+     * @param path the file
+     * @return its length in bytes
+     */
+    private static long sizeOf(Path path) {
+        return path.toFile().length();
+    }
+
+    /**
+     * Writes a block of complete lines and flushes it to the file.
+     *
+     * @param writer the destination
+     * @param text   the lines, each ending with a line break
+     * @throws IOException if the write fails
+     */
+    private static void writeText(Writer writer, CharSequence text) throws IOException {
+        writer.append(text);
+        writer.flush();
+    }
+
+    /**
+     * Opens a buffered writer over an append-mode channel. If the file does not end with a
+     * line break (for example after a hand edit), one is added so the next line stands alone.
+     *
+     * @param path the file to append to
+     * @return the writer
+     * @throws IOException if the file cannot be opened
+     */
+    private static Writer openAppender(Path path) throws IOException {
+        boolean needsLineBreak = false;
+        if (Files.exists(path)) {
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = in.size();
+                if (size > 0) {
+                    ByteBuffer last = ByteBuffer.allocate(1);
+                    in.read(last, size - 1);
+                    needsLineBreak = last.get(0) != '\n';
+                }
+            }
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+        if (needsLineBreak) {
+            writer.write(System.lineSeparator());
+        }
+        return writer;
+    }
+
+    /**
+     * Closes a writer or channel, reporting but otherwise ignoring failures.
+     *
+     * @param writer the writer or channel, or null
+     * @param <T>    its type
+     * @return null, for assigning back to the field
+     */
+    private static <T extends Closeable> T closeQuietly(T writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads assets from the user file and replays the journal over them, then takes on what
+     * was learnt about the files. A file that cannot be read is reported and skipped, so the
+     * rest of the portfolio still loads.
+     *
+     * @param listener told about each batch, or null to load in one go
+     * @return false if the listener cancelled the load
+     */
+    private boolean loadFromFile(LoadListener listener) {
+        fileWork.lock();
+        try {
+            FileState state = readFilesQuietly(assets, format, basePath, listener);
+            if (state == null) return false;
+            synchronized (this) {
+                adopt(state);
+            }
+            return true;
+        } finally {
+            fileWork.unlock();
+        }
+    }
+
+    /**
+     * Reads the files into a table, reporting and skipping a file that cannot be read.
+     *
+     * @param table    the table to fill
+     * @param format   the base file's format
+     * @param base     the base file
+     * @param listener told about each batch, or null to load in one go
+     * @return what was learnt about the files, or null if the listener cancelled the load
+     */
+    private FileState readFilesQuietly(AssetTable table, Format format, Path base, LoadListener listener) {
+        try {
+            return readFiles(table, format, base, listener, false);
+        } catch (IOException e) {
+            // Not thrown: read failures are only reported in this mode
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Takes on what a read learnt about the files. The caller holds {@link #fileWork} and the
+     * monitor.
+     *
+     * @param state the result of {@link #readFiles}
+     */
+    private void adopt(FileState state) {
+        knownBaseSize = state.baseSize;
+        knownJournalSize = state.journalSize;
+        baseKey = state.baseKey;
+        journalKey = state.journalKey;
+        hasHeader = state.hasHeader;
+        if (!hasHeader) {
+            legacyNextId = state.legacyNextId;
+        }
+    }
+
+    /**
+     * Loads assets from a base file and replays the journal over them.
+     * CSV files are read by {@link AssetFileLoader}, in parallel when they are large, or in
+     * ordered batches when a listener wants to see rows as they arrive. The monitor is held
+     * only while rows go into this repository's own table, and never while a file is read;
+     * a table of the caller's own is filled without it.
+     *
+     * @param table    the table to fill
+     * @param format   the base file's format
+     * @param base     the base file
+     * @param listener told about each batch, or null to load in one go
+     * @param strict   true to fail on a file that cannot be read, false to report and skip it
+     * @return what was learnt about the files, or null if the listener cancelled the load
+     * @throws IOException if a file cannot be read and {@code strict} is set
+     */
+    private FileState readFiles(AssetTable table, Format format, Path base, LoadListener listener,
+            boolean strict) throws IOException {
+        Object guard = table == assets ? this : table;
+        FileState state = new FileState();
+        state.baseSize = sizeOf(base);
+        state.journalSize = sizeOf(journalPath);
+        state.baseKey = fileKey(base);
+        state.journalKey = fileKey(journalPath);
+        File file = base.toFile();
+        if (file.exists() && format == Format.COLUMNAR) {
+            try {
+                ColumnarAssetFile columns = ColumnarAssetFile.open(base);
+                int rows = columns.size();
+                for (int start = 0; start < rows; start += BATCH_ROWS) {
+                    int end = Math.min(rows, start + BATCH_ROWS);
+                    synchronized (guard) {
+                        for (int row = start; row < end; row++) {
+                            table.add(columns.asset(row));
+                        }
+                    }
+                    if (listener != null && !listener.rowsLoaded(end, (int) (end * 100L / rows))) return null;
+                }
+                state.hasHeader = columns.nextId() > 0 && hasSummarySlot(base, format);
+            } catch (IOException e) {
+                if (strict) throw e;
+                e.printStackTrace();
+            }
+        } else if (file.exists()) {
+            try {
+                if (listener == null) {
+                    AssetTable read = table == assets ? new AssetTable() : table;
+                    AssetFileLoader.load(base, read);
+                    if (read != table) {
+                        synchronized (guard) {
+                            table.addAll(read);
+                        }
+                    }
+                } else {
+                    boolean complete = AssetFileLoader.loadInBatches(base, (rows, bytesRead, size) -> {
+                        int loadedRows;
+                        synchronized (guard) {
+                            table.addAll(rows);
+                            loadedRows = table.size();
+                        }
+                        return listener.rowsLoaded(loadedRows, (int) (bytesRead * 100 / size));
+                    });
+                    if (!complete) return null;
+                }
+                state.hasHeader = AssetFileLoader.readNextId(base) > 0 && hasSummarySlot(base, format);
+            } catch (IOException e) {
+                if (strict) throw e;
+                e.printStackTrace();
+            }
+        }
+        byte[] journalBytes = Files.exists(journalPath) ? readJournal(strict) : null;
+        int rows;
+        synchronized (guard) {
+            if (journalBytes != null) {
+                replayJournal(table, journalBytes);
+            }
+            if (!state.hasHeader) {
+                // One scan for files from before the id header; later allocations read the header
+                state.legacyNextId = table.maxId() + 1;
+            }
+            rows = table.size();
+        }
+        if (listener != null) {
+            listener.rowsLoaded(rows, 100);
+        }
+        return state;
+    }
+
+    /**
+     * Reads the whole journal.
+     *
+     * @param strict true to fail if the journal cannot be read, false to report it and go on
+     * @return the journal's bytes, or null if it is gone or could not be read
+     * @throws IOException if the journal cannot be read and {@code strict} is set
+     */
+    private byte[] readJournal(boolean strict) throws IOException {
+        try {
+            return Files.readAllBytes(journalPath);
+        } catch (NoSuchFileException e) {
+            // Folded into the base file by another process after it was read; that file has
+            // been replaced too, so the next refresh reads both again
+            if (strict) throw e;
+            return null;
+        } catch (IOException e) {
+            if (strict) throw e;
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Applies journal records in order: upserts replace the asset with the same id in place
+     * (or add it if unknown) and tombstones remove it. Only lines ending in a line break are
+     * applied, since anything after the last one is a record an interrupted write cut short.
+     *
+     * @param assets the table to apply them to
+     * @param bytes  the journal
+     */
+    private static void replayJournal(AssetTable assets, byte[] bytes) {
+        RowsById rows = new RowsById(assets);
+        AssetRecordParser parser = new AssetRecordParser();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int start = 0;
+        for (int pos = 0; pos < bytes.length; pos++) {
+            if (bytes[pos] != '\n') continue;
+            int lineEnd = pos > start && bytes[pos - 1] == '\r' ? pos - 1 : pos;
+            if (lineEnd - start > 2 && bytes[start + 1] == ',') {
+                if (bytes[start] == UPSERT.charAt(0) && parser.parse(buffer, start + 2, lineEnd)) {
+                    int row = rows.get(parser.id);
+                    if (row >= 0) {
+                        assets.set(row, parser);
+                    } else {
+                        rows.put(parser.id, assets.size());
+                        assets.add(parser);
+                    }
+                } else if (bytes[start] == TOMBSTONE.charAt(0)) {
+                    int id = parseId(buffer, start + 2, lineEnd);
+                    int row = rows.get(id);
+                    if (row >= 0) {
+                        int last = assets.size() - 1;
+                        rows.put(assets.id(last), row);
+                        rows.put(id, -1);
+                        assets.remove(row);
+                    }
+                }
+            }
+            start = pos + 1;
+        }
+    }
+}
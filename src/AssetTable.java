@@ -0,0 +1,679 @@
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory portfolio kept as parallel primitive arrays instead of a list of {@link Asset}
+ * objects: ids, values, one-byte type codes and epoch-day dates each have their own array,
+ * which grows by half when full. Type names are stored once in a small dictionary, and a
+ * purchase date's text is kept only when it is not the ISO form of its epoch day, so rows
+ * carry no duplicated strings and sums run as plain loops over {@code double[]}.
+ * <p>
+ * {@link #view()} presents the rows as a read-only list of assets for the UI; each element is
+ * built when it is asked for. A table can also keep an {@link AssetIndex} for lookups by id,
+ * type, date range and name prefix; see {@link #enableIndex()}.
+ * <p>
+ * Totals are kept as running aggregates updated on every change: total value, count and value
+ * per type, and the smallest and largest value. Removing or lowering the current extreme only
+ * marks the extremes stale; they are recomputed the next time they are asked for.
+ * <p>
+ * Every change also marks the table changed, and {@link #version()} then hands out a new stamp.
+ * Stamps come from one counter shared by all tables, so a stamp never means two different
+ * states, even across tables that replace each other for the same user.
+ */
+class AssetTable {
+    /** Capacity of a table created without a size hint. */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int size;
+    private int[] ids;
+    private double[] values;
+    private byte[] typeCodes;
+    private int[] epochDays;
+    private String[] names;
+
+    /** Original date text for rows whose date is not stored exactly by {@link #epochDays}, else null. */
+    private String[] dates;
+
+    /** Type names by code; the standard types come first. */
+    private final ArrayList<String> types = new ArrayList<>(Arrays.asList(Asset.TYPES));
+
+    /** Type codes by name. */
+    private final Map<String, Integer> typeCodeByName = new HashMap<>();
+
+    /** Running sum of all values. */
+    private double total;
+
+    /** Row count per type code. */
+    private final int[] countByType = new int[256];
+
+    /** Running value per type code. */
+    private final double[] valueByType = new double[256];
+
+    /** Smallest and largest value, valid only while {@link #extremesStale} is false. */
+    private double min, max;
+
+    /** Whether {@link #min} and {@link #max} must be recomputed before use. */
+    private boolean extremesStale;
+
+    /** Source of version stamps for every table. */
+    private static final AtomicLong stamps = new AtomicLong();
+
+    /** The stamp last handed out by {@link #version()}. */
+    private long version;
+
+    /** Whether the rows have changed since {@link #version} was handed out. */
+    private boolean changed = true;
+
+    /** Secondary indexes, or null if the table does not keep them. */
+    private AssetIndex index;
+
+    /** The read-only list returned by {@link #view()}. */
+    private final List<Asset> view = new AbstractList<Asset>() {
+        @Override
+        public Asset get(int row) {
+            checkRow(row);
+            return asset(row);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    /**
+     * Creates an empty table.
+     */
+    AssetTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty table with room for a number of rows.
+     *
+     * @param capacity the initial capacity
+     */
+    AssetTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        values = new double[capacity];
+        typeCodes = new byte[capacity];
+        epochDays = new int[capacity];
+        names = new String[capacity];
+        dates = new String[capacity];
+        for (int i = 0; i < types.size(); i++) {
+            typeCodeByName.put(types.get(i), i);
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the row count
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends an asset.
+     *
+     * @param asset the asset
+     */
+    void add(Asset asset) {
+        if (size == ids.length) {
+            grow(size + 1);
+        }
+        write(size, asset);
+        track(size++);
+    }
+
+    /**
+     * Replaces the asset in a row.
+     *
+     * @param row   the row number
+     * @param asset the new asset
+     */
+    void set(int row, Asset asset) {
+        untrack(row);
+        write(row, asset);
+        track(row);
+    }
+
+    /**
+     * Stores an asset's fields in a row.
+     *
+     * @param row   the row number
+     * @param asset the asset
+     */
+    private void write(int row, Asset asset) {
+        ids[row] = asset.id;
+        values[row] = asset.value;
+        typeCodes[row] = typeCode(asset.type);
+        int day = Asset.toEpochDay(asset.purchaseDate);
+        epochDays[row] = day;
+        names[row] = asset.name;
+        dates[row] = Asset.isIsoDate(asset.purchaseDate, day) ? null : asset.purchaseDate;
+    }
+
+    /**
+     * Appends the record a parser has just read, without building an {@link Asset}.
+     *
+     * @param record the parser holding the record
+     */
+    void add(AssetRecordParser record) {
+        if (size == ids.length) {
+            grow(size + 1);
+        }
+        write(size, record);
+        track(size++);
+    }
+
+    /**
+     * Replaces a row with the record a parser has just read, without building an {@link Asset}.
+     *
+     * @param row    the row number
+     * @param record the parser holding the record
+     */
+    void set(int row, AssetRecordParser record) {
+        untrack(row);
+        write(row, record);
+        track(row);
+    }
+
+    /**
+     * Stores a parsed record's fields in a row.
+     *
+     * @param row    the row number
+     * @param record the parser holding the record
+     */
+    private void write(int row, AssetRecordParser record) {
+        ids[row] = record.id;
+        values[row] = record.value;
+        typeCodes[row] = typeCode(record.type);
+        epochDays[row] = record.epochDay;
+        names[row] = record.name;
+        dates[row] = record.dateText;
+    }
+
+    /**
+     * Appends every row of another table, in order.
+     *
+     * @param other the rows to append
+     */
+    void addAll(AssetTable other) {
+        if (size + other.size > ids.length) {
+            grow(size + other.size);
+        }
+        System.arraycopy(other.ids, 0, ids, size, other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        System.arraycopy(other.epochDays, 0, epochDays, size, other.size);
+        System.arraycopy(other.names, 0, names, size, other.size);
+        System.arraycopy(other.dates, 0, dates, size, other.size);
+        if (other.types.size() <= Asset.TYPES.length) {
+            // Only the standard types, whose codes are the same in every table
+            System.arraycopy(other.typeCodes, 0, typeCodes, size, other.size);
+        } else {
+            for (int i = 0; i < other.size; i++) {
+                typeCodes[size + i] = typeCode(other.types.get(other.typeCodes[i] & 0xFF));
+            }
+        }
+        for (int i = 0; i < other.size; i++) {
+            track(size++);
+        }
+    }
+
+    /**
+     * Removes a row in constant time by moving the last row into its place. The order of the
+     * remaining rows therefore changes; callers that need a particular order should sort.
+     *
+     * @param row the row number
+     * @return the id of the removed asset
+     */
+    int remove(int row) {
+        checkRow(row);
+        untrack(row);
+        int id = ids[row];
+        int last = --size;
+        if (row != last) {
+            ids[row] = ids[last];
+            values[row] = values[last];
+            typeCodes[row] = typeCodes[last];
+            epochDays[row] = epochDays[last];
+            names[row] = names[last];
+            dates[row] = dates[last];
+            if (index != null) {
+                index.moveRow(ids[row], row);
+            }
+        }
+        names[last] = null;
+        dates[last] = null;
+        if (size == 0) {
+            resetAggregates();
+        }
+        return id;
+    }
+
+    /**
+     * Takes over the rows, totals and indexes of another table, which must not be used
+     * afterwards. The columns are handed over rather than copied, so a table read without a
+     * lock can be swapped in while holding one only briefly. Views of this table follow.
+     *
+     * @param other the table whose rows replace these
+     */
+    void replaceWith(AssetTable other) {
+        size = other.size;
+        ids = other.ids;
+        values = other.values;
+        typeCodes = other.typeCodes;
+        epochDays = other.epochDays;
+        names = other.names;
+        dates = other.dates;
+        types.clear();
+        types.addAll(other.types);
+        typeCodeByName.clear();
+        typeCodeByName.putAll(other.typeCodeByName);
+        total = other.total;
+        System.arraycopy(other.countByType, 0, countByType, 0, countByType.length);
+        System.arraycopy(other.valueByType, 0, valueByType, 0, valueByType.length);
+        min = other.min;
+        max = other.max;
+        extremesStale = other.extremesStale;
+        index = other.index;
+        changed = true;
+    }
+
+    /**
+     * Starts keeping secondary indexes, building them from the current rows.
+     */
+    void enableIndex() {
+        index = new AssetIndex();
+        for (int i = 0; i < size; i++) {
+            index.add(i, ids[i], typeCodes[i] & 0xFF, epochDays[i], names[i]);
+        }
+    }
+
+    /**
+     * Returns the row holding an asset. Requires {@link #enableIndex()}.
+     *
+     * @param id the asset id
+     * @return the row number, or -1 if there is none
+     */
+    int rowOf(int id) {
+        return index.rowOf(id);
+    }
+
+    /**
+     * Returns the ids of the assets of one type. Requires {@link #enableIndex()}.
+     *
+     * @param type the type name
+     * @return the ids; must not be modified
+     */
+    Set<Integer> idsOfType(String type) {
+        int code = findTypeCode(type);
+        return code < 0 ? Set.of() : index.idsOfType(code);
+    }
+
+    /**
+     * Returns the ids of assets bought within a range of days. Requires {@link #enableIndex()}.
+     *
+     * @param fromDay the first epoch day, inclusive
+     * @param toDay   the last epoch day, exclusive
+     * @return the ids
+     */
+    Set<Integer> idsBoughtBetween(int fromDay, int toDay) {
+        return index.idsBoughtBetween(fromDay, toDay);
+    }
+
+    /**
+     * Returns the ids of assets whose name starts with a prefix, ignoring case.
+     * Requires {@link #enableIndex()}.
+     *
+     * @param prefix the prefix
+     * @return the ids
+     */
+    Set<Integer> idsWithNamePrefix(String prefix) {
+        return index.idsWithNamePrefix(prefix);
+    }
+
+    /**
+     * Adds a row to the aggregates, and to the indexes if they are kept.
+     *
+     * @param row the row number
+     */
+    private void track(int row) {
+        changed = true;
+        double value = values[row];
+        int code = typeCodes[row] & 0xFF;
+        total += value;
+        countByType[code]++;
+        valueByType[code] += value;
+        if (size == 1) {
+            min = max = value;
+            extremesStale = false;
+        } else if (!extremesStale) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (index != null) {
+            index.add(row, ids[row], typeCodes[row] & 0xFF, epochDays[row], names[row]);
+        }
+    }
+
+    /**
+     * Removes a row from the aggregates, and from the indexes if they are kept.
+     *
+     * @param row the row number
+     */
+    private void untrack(int row) {
+        changed = true;
+        double value = values[row];
+        int code = typeCodes[row] & 0xFF;
+        total -= value;
+        countByType[code]--;
+        valueByType[code] -= value;
+        if (value <= min || value >= max) {
+            extremesStale = true;
+        }
+        if (index != null) {
+            index.remove(ids[row], typeCodes[row] & 0xFF, epochDays[row], names[row]);
+        }
+    }
+
+    /**
+     * Removes every row.
+     */
+    void clear() {
+        changed = true;
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(dates, 0, size, null);
+        size = 0;
+        resetAggregates();
+        if (index != null) {
+            index = new AssetIndex();
+        }
+    }
+
+    /**
+     * Returns the id in a row.
+     *
+     * @param row the row number
+     * @return the asset id
+     */
+    int id(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Returns the value in a row.
+     *
+     * @param row the row number
+     * @return the asset value
+     */
+    double value(int row) {
+        return values[row];
+    }
+
+    /**
+     * Returns the type code in a row.
+     *
+     * @param row the row number
+     * @return the type code; see {@link #typeName(int)}
+     */
+    int typeCode(int row) {
+        return typeCodes[row] & 0xFF;
+    }
+
+    /**
+     * Returns the purchase date in a row as an epoch day.
+     *
+     * @param row the row number
+     * @return the epoch day, or {@link Asset#UNKNOWN_DAY}
+     */
+    int epochDay(int row) {
+        return epochDays[row];
+    }
+
+    /**
+     * Returns the name of a type code.
+     *
+     * @param code the type code
+     * @return the type name
+     */
+    String typeName(int code) {
+        return types.get(code);
+    }
+
+    /**
+     * Returns a stamp for the table's current rows. It stays the same until the rows change and
+     * is larger after every change.
+     *
+     * @return the version stamp
+     */
+    long version() {
+        if (changed) {
+            version = stamps.incrementAndGet();
+            changed = false;
+        }
+        return version;
+    }
+
+    /**
+     * Returns the number of type codes in use; codes run from zero to one less than this.
+     *
+     * @return the size of the type dictionary
+     */
+    int typeCount() {
+        return types.size();
+    }
+
+    /**
+     * Returns the code of a type name without adding it to the dictionary.
+     *
+     * @param type the type name
+     * @return the code, or -1 if no row has ever used the type
+     */
+    int findTypeCode(String type) {
+        Integer code = typeCodeByName.get(type);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the largest id in the table.
+     *
+     * @return the largest id, or 0 if the table is empty
+     */
+    int maxId() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, ids[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the total value of all rows, from the running aggregate.
+     *
+     * @return the total value
+     */
+    double totalValue() {
+        return total;
+    }
+
+    /**
+     * Returns the total value of the rows of one type, from the running aggregate.
+     *
+     * @param type the type name
+     * @return the total value of that type
+     */
+    double totalValue(String type) {
+        int code = findTypeCode(type);
+        return code < 0 ? 0 : valueByType[code];
+    }
+
+    /**
+     * Returns the number of rows of one type.
+     *
+     * @param type the type name
+     * @return the count
+     */
+    int count(String type) {
+        int code = findTypeCode(type);
+        return code < 0 ? 0 : countByType[code];
+    }
+
+    /**
+     * Returns the smallest value, recomputing it first if it went stale.
+     *
+     * @return the smallest value, or NaN if the table is empty
+     */
+    double minValue() {
+        refreshExtremes();
+        return size == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Returns the largest value, recomputing it first if it went stale.
+     *
+     * @return the largest value, or NaN if the table is empty
+     */
+    double maxValue() {
+        refreshExtremes();
+        return size == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Captures the aggregates as a summary that can be stored in a file header.
+     *
+     * @return the summary
+     */
+    PortfolioSummary summary() {
+        int[] counts = new int[Asset.TYPES.length + 1];
+        double[] bucketValues = new double[Asset.TYPES.length + 1];
+        int other = Asset.TYPES.length;
+        for (int code = 0; code < types.size(); code++) {
+            int bucket = Math.min(code, other);
+            counts[bucket] += countByType[code];
+            bucketValues[bucket] += valueByType[code];
+        }
+        return new PortfolioSummary(size, total, minValue(), maxValue(), counts, bucketValues);
+    }
+
+    /**
+     * Recomputes the smallest and largest value with one pass over the value column, if needed.
+     */
+    private void refreshExtremes() {
+        if (!extremesStale) return;
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            low = Math.min(low, values[i]);
+            high = Math.max(high, values[i]);
+        }
+        min = low;
+        max = high;
+        extremesStale = false;
+    }
+
+    /**
+     * Zeroes the aggregates once the table is empty, dropping any rounding left in the running sums.
+     */
+    private void resetAggregates() {
+        total = 0;
+        Arrays.fill(countByType, 0);
+        Arrays.fill(valueByType, 0);
+        extremesStale = false;
+    }
+
+    /**
+     * Builds the asset in a row.
+     *
+     * @param row the row number
+     * @return a new asset holding the row's fields
+     */
+    Asset asset(int row) {
+        String date = dates[row] != null ? dates[row] : LocalDate.ofEpochDay(epochDays[row]).toString();
+        return new Asset(ids[row], types.get(typeCodes[row] & 0xFF), names[row], values[row], date);
+    }
+
+    /**
+     * Returns a read-only list over the rows. It reflects later changes to the table.
+     *
+     * @return the view
+     */
+    List<Asset> view() {
+        return view;
+    }
+
+    /**
+     * Returns an independent copy of this table's rows, without indexes.
+     *
+     * @return the copy
+     */
+    AssetTable copy() {
+        AssetTable copy = new AssetTable(size);
+        copy.size = size;
+        System.arraycopy(ids, 0, copy.ids, 0, size);
+        System.arraycopy(values, 0, copy.values, 0, size);
+        System.arraycopy(typeCodes, 0, copy.typeCodes, 0, size);
+        System.arraycopy(epochDays, 0, copy.epochDays, 0, size);
+        System.arraycopy(names, 0, copy.names, 0, size);
+        System.arraycopy(dates, 0, copy.dates, 0, size);
+        for (int i = copy.types.size(); i < types.size(); i++) {
+            copy.typeCode(types.get(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Looks up a type's code, adding the type to the dictionary if it is new.
+     *
+     * @param type the type name
+     * @return the code
+     */
+    private byte typeCode(String type) {
+        Integer code = typeCodeByName.get(type);
+        if (code == null) {
+            if (types.size() > 0xFF) {
+                throw new IllegalStateException("Too many distinct asset types");
+            }
+            code = types.size();
+            types.add(type);
+            typeCodeByName.put(type, code);
+        }
+        return (byte) (int) code;
+    }
+
+    /**
+     * Enlarges every column to hold at least a number of rows.
+     *
+     * @param minCapacity the rows needed
+     */
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        values = Arrays.copyOf(values, capacity);
+        typeCodes = Arrays.copyOf(typeCodes, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        names = Arrays.copyOf(names, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+    }
+
+    /**
+     * Checks that a row number is in range.
+     *
+     * @param row the row number
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+}
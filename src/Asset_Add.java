@@ -1,185 +1,28 @@
 import javax.swing.*;
 import java.awt.*;
-import java.io.*;
-import java.util.ArrayList;
-
-/**
- * Represents an asset with basic properties like type, name, value, and purchase date.
- */
-class Asset {
-    static int idCounter = 1; // For generating unique IDs
-    int id;
-    String type;
-    String name;
-    double value;
-    String purchaseDate;
-
-    /**
-     * Constructs a new Asset with an auto-generated ID.
-     *
-     * @param type         the asset type (e.g., Stock, Real Estate)
-     * @param name         the asset name
-     * @param value        the asset value
-     * @param purchaseDate the date the asset was purchased
-     */
-    public Asset(String type, String name, double value, String purchaseDate) {
-        this.id = idCounter++;
-        this.type = type;
-        this.name = name;
-        this.value = value;
-        this.purchaseDate = purchaseDate;
-    }
-
-    /**
-     * Constructs an Asset with a specific ID (typically loaded from file).
-     *
-     * @param id           the asset ID
-     * @param type         the asset type
-     * @param name         the asset name
-     * @param value        the asset value
-     * @param purchaseDate the date the asset was purchased
-     */
-    public Asset(int id, String type, String name, double value, String purchaseDate) {
-        this.id = id;
-        this.type = type;
-        this.name = name;
-        this.value = value;
-        this.purchaseDate = purchaseDate;
-
-        if (id >= idCounter) {
-            idCounter = id + 1;
-        }
-    }
-
-    /**
-     * Returns a string representation of the asset.
-     *
-     * @return a human-readable asset string
-     */
-    @Override
-    public String toString() {
-        return "#" + id + " - " + type + ": " + name + " | $" + value + " | " + purchaseDate;
-    }
-
-    /**
-     * Converts the asset to a CSV string for saving to file.
-     *
-     * @return a CSV-formatted string
-     */
-    public String toFileString() {
-        return id + "," + type + "," + name + "," + value + "," + purchaseDate;
-    }
-
-    /**
-     * Creates an Asset object from a line of file data.
-     *
-     * @param line the line from the file
-     * @return an Asset object or null if the line is invalid
-     */
-    public static Asset fromFileString(String line) {
-        String[] parts = line.split(",");
-        if (parts.length == 5) {
-            int id = Integer.parseInt(parts[0]);
-            String type = parts[1];
-            String name = parts[2];
-            double value = Double.parseDouble(parts[3]);
-            String purchaseDate = parts[4];
-            return new Asset(id, type, name, value, purchaseDate);
-        }
-        return null;
-    }
-}
-
-/**
- * Manages a list of assets and handles file persistence.
- */
-class AssetStore {
-    private ArrayList<Asset> assets = new ArrayList<>();
-    private final String fileName;
-
-    /**
-     * Initializes the asset store with a user-specific file.
-     *
-     * @param username the username to personalize file name
-     */
-    public AssetStore(String username) {
-        this.fileName = "assets_" + username + ".txt";
-        loadFromFile();
-    }
-
-    /**
-     * Adds an asset to the list and saves to file.
-     *
-     * @param asset the asset to add
-     */
-    public void addAsset(Asset asset) {
-        assets.add(asset);
-        saveToFile();
-    }
-
-    /**
-     * Gets all stored assets.
-     *
-     * @return a list of assets
-     */
-    public ArrayList<Asset> getAssets() {
-        return assets;
-    }
-
-    /**
-     * Saves the asset list to a file.
-     */
-    private void saveToFile() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
-            for (Asset asset : assets) {
-                writer.println(asset.toFileString());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Loads assets from the user file.
-     */
-    private void loadFromFile() {
-        assets.clear();
-        Asset.idCounter = 1;
-        File file = new File(fileName);
-        if (!file.exists()) return;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Asset asset = Asset.fromFileString(line);
-                if (asset != null) {
-                    assets.add(asset);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-}
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
  * GUI class for adding and displaying user assets.
+ * The list is redrawn when another process changes the user's assets. The window opens at
+ * once and the list fills in while a large portfolio is still being read.
  */
 public class Asset_Add extends JFrame {
     private JFrame frame;
     private JComboBox<String> assetTypeBox;
     private JTextField nameField, valueField, dateField;
-    private DefaultListModel<String> assetListModel;
-    private AssetStore assetStore;
+    private AssetListModel assetListModel;
+    private AssetRepository assetStore;
 
     /**
      * Constructs the asset addition GUI for a specific user.
      *
-     * @param username the current user's username
+     * @param session the current user's session
      */
-    public Asset_Add(String username) {
-        assetStore = new AssetStore(username);
+    public Asset_Add(UserSession session) {
+        String username = session.getUsername();
+        assetStore = session.openPortfolio();
         frame = new JFrame("Investor Asset Management - User: " + username);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(500, 450);
@@ -229,14 +72,23 @@ public class Asset_Add extends JFrame {
 
         frame.add(inputPanel, BorderLayout.NORTH);
 
-        assetListModel = new DefaultListModel<>();
-        JList<String> assetList = new JList<>(assetListModel);
+        assetListModel = new AssetListModel(assetStore, Asset::toString);
+        JList<Asset> assetList = new JList<>();
+        assetListModel.install(assetList);
         JScrollPane scrollPane = new JScrollPane(assetList);
         frame.add(scrollPane, BorderLayout.CENTER);
 
-        for (Asset asset : assetStore.getAssets()) {
-            assetListModel.addElement(asset.toString());
-        }
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        frame.add(progressBar, BorderLayout.SOUTH);
+
+        Runnable onChange = assetListModel::refresh;
+        session.addChangeListener(onChange);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                session.removeChangeListener(onChange);
+            }
+        });
 
         addButton.addActionListener(e -> {
             String type = (String) assetTypeBox.getSelectedItem();
@@ -249,11 +101,23 @@ public class Asset_Add extends JFrame {
                 return;
             }
 
+            if (Asset.hasLineBreak(name)) {
+                JOptionPane.showMessageDialog(frame, "The name must fit on one line.");
+                return;
+            }
+
+            if (Asset.toEpochDay(date) == Asset.UNKNOWN_DAY) {
+                JOptionPane.showMessageDialog(frame, "Please enter the purchase date as YYYY-MM-DD.");
+                return;
+            }
+
             try {
                 double value = Double.parseDouble(valueText);
-                Asset asset = new Asset(type, name, value, date);
+                Asset asset = new Asset(assetStore.nextId(), type, name, value, date);
                 assetStore.addAsset(asset);
-                assetListModel.addElement(asset.toString());
+                PersistenceQueue.reportFailure(assetStore.whenSaved(), frame, "the new asset");
+                assetListModel.refresh();
+                assetList.ensureIndexIsVisible(assetListModel.getSize() - 1);
 
                 nameField.setText("");
                 valueField.setText("");
@@ -266,9 +130,12 @@ public class Asset_Add extends JFrame {
 
         backButton.addActionListener(e -> {
             frame.dispose();
-            new Dashboard(username); // Replace with real dashboard if needed
+            new Dashboard(session);
         });
 
+        addButton.setEnabled(false);
         frame.setVisible(true);
+        PortfolioLoader.start(session, assetStore, frame, progressBar, assetListModel::refresh,
+                () -> addButton.setEnabled(true));
     }
 }
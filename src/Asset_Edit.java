@@ -1,187 +1,72 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.io.*;
-import java.util.ArrayList;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
  * This class represents a GUI for editing and removing assets from a user's asset list.
- * It allows users to update and delete existing assets.
+ * It allows users to update and delete existing assets; several assets can be selected and
+ * removed together, and the list can be filtered by name. The list is redrawn when another
+ * process changes the user's assets. The window opens at once and the list fills in while a
+ * large portfolio is still being read; editing is enabled once it has been read in full.
  */
 public class Asset_Edit extends JFrame {
-    private String username;
-
-    /**
-     * This class represents an asset with an ID, type, name, value, and purchase date.
-     */
-    static class Asset {
-        int id;
-        String type, name, purchaseDate;
-        double value;
-
-        /**
-         * Constructs an Asset with the given attributes.
-         *
-         * @param id the unique identifier of the asset.
-         * @param type the type of the asset (e.g., "Stocks").
-         * @param name the name of the asset.
-         * @param value the value of the asset.
-         * @param purchaseDate the purchase date of the asset.
-         */
-        public Asset(int id, String type, String name, double value, String purchaseDate) {
-            this.id = id;
-            this.type = type;
-            this.name = name;
-            this.value = value;
-            this.purchaseDate = purchaseDate;
-        }
-
-        /**
-         * Converts a CSV string into an Asset object.
-         *
-         * @param line the CSV string containing asset details.
-         * @return the Asset object created from the string, or null if invalid.
-         */
-        public static Asset fromFileString(String line) {
-            String[] parts = line.split(",", 5);
-            if (parts.length == 5) {
-                int id = Integer.parseInt(parts[0]);
-                String type = parts[1];
-                String name = parts[2];
-                double value = Double.parseDouble(parts[3]);
-                String date = parts[4];
-                return new Asset(id, type, name, value, date);
-            }
-            return null;
-        }
-
-        /**
-         * Converts the Asset object to a CSV string representation.
-         *
-         * @return the CSV string representation of the asset.
-         */
-        public String toFileString() {
-            return id + "," + type + "," + name + "," + value + "," + purchaseDate;
-        }
-
-        /**
-         * Returns a string representation of the asset for displaying in the UI.
-         *
-         * @return a string representation of the asset.
-         */
-        @Override
-        public String toString() {
-            return "#" + id + " - " + type + ": " + name + " | $" + value + " | " + purchaseDate;
-        }
-    }
-
-    /**
-     * This class handles the storage and management of assets, saving and loading them from a file.
-     */
-    static class AssetStore {
-        private ArrayList<Asset> assets = new ArrayList<>();
-        private final String fileName;
-
-        /**
-         * Constructs an AssetStore with a file specific to the user's assets.
-         *
-         * @param username the username of the current user.
-         */
-        public AssetStore(String username) {
-            this.fileName = "assets_" + username + ".txt";
-            loadFromFile();
-        }
-
-        /**
-         * Returns the list of assets.
-         *
-         * @return the list of assets.
-         */
-        public ArrayList<Asset> getAssets() {
-            return assets;
-        }
-
-        /**
-         * Updates the asset at the specified index.
-         *
-         * @param index the index of the asset to update.
-         * @param newAsset the updated asset.
-         */
-        public void updateAsset(int index, Asset newAsset) {
-            if (index >= 0 && index < assets.size()) {
-                assets.set(index, newAsset);
-                saveAllToFile();
-            }
-        }
-
-        /**
-         * Removes the asset at the specified index.
-         *
-         * @param index the index of the asset to remove.
-         */
-        public void removeAsset(int index) {
-            if (index >= 0 && index < assets.size()) {
-                assets.remove(index);
-                saveAllToFile();
-            }
-        }
-
-        /**
-         * Saves all assets to the file.
-         */
-        private void saveAllToFile() {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-                for (Asset asset : assets) {
-                    writer.write(asset.toFileString());
-                    writer.newLine();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        /**
-         * Loads assets from the file into memory.
-         */
-        private void loadFromFile() {
-            File file = new File(fileName);
-            if (!file.exists()) return;
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    Asset asset = Asset.fromFileString(line);
-                    if (asset != null) {
-                        assets.add(asset);
-                    }
-                }
-            } catch (IOException | NumberFormatException e) {
-                e.printStackTrace();
-            }
-        }
-    }
+    private UserSession session;
 
     /**
      * Constructs the Asset_Edit GUI and sets up event listeners for interacting with the assets.
      *
-     * @param username the username of the current user.
+     * @param session the session of the current user.
      */
-    public Asset_Edit(String username) {
-        this.username = username;
+    public Asset_Edit(UserSession session) {
+        this.session = session;
+        String username = session.getUsername();
         setTitle("Edit / Remove Assets - User: " + username);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(600, 450);
         setLocationRelativeTo(null);
         setLayout(new BorderLayout(10, 10));
 
-        AssetStore store = new AssetStore(username);
-        DefaultListModel<String> listModel = new DefaultListModel<>();
-        JList<String> assetList = new JList<>(listModel);
+        AssetRepository store = session.openPortfolio();
+        AssetListModel listModel = new AssetListModel(store, Asset::toString);
+        JList<Asset> assetList = new JList<>();
+        listModel.install(assetList);
+        assetList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         JScrollPane scrollPane = new JScrollPane(assetList);
         add(scrollPane, BorderLayout.CENTER);
 
-        for (Asset asset : store.getAssets()) {
-            listModel.addElement(asset.toString());
-        }
+        JTextField filterField = new JTextField(20);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                listModel.setFilter(filterField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                listModel.setFilter(filterField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                listModel.setFilter(filterField.getText());
+            }
+        });
+        JPanel filterPanel = new JPanel();
+        filterPanel.add(new JLabel("Filter by name:"));
+        filterPanel.add(filterField);
+        add(filterPanel, BorderLayout.NORTH);
+
+        Runnable onChange = listModel::refresh;
+        session.addChangeListener(onChange);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                session.removeChangeListener(onChange);
+            }
+        });
 
         JButton editBtn = new JButton("Edit Selected");
         JButton removeBtn = new JButton("Remove Selected");
@@ -191,7 +76,11 @@ public class Asset_Edit extends JFrame {
         btnPanel.add(editBtn);
         btnPanel.add(removeBtn);
         btnPanel.add(backBtn);
-        add(btnPanel, BorderLayout.SOUTH);
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(progressBar, BorderLayout.NORTH);
+        southPanel.add(btnPanel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
 
         // Edit asset
         editBtn.addActionListener(e -> {
@@ -201,7 +90,7 @@ public class Asset_Edit extends JFrame {
                 return;
             }
 
-            Asset selected = store.getAssets().get(index);
+            Asset selected = listModel.getElementAt(index);
 
             JTextField nameField = new JTextField(selected.name);
             JTextField valueField = new JTextField(String.valueOf(selected.value));
@@ -223,36 +112,62 @@ public class Asset_Edit extends JFrame {
                     double value = Double.parseDouble(valueField.getText().trim());
                     String date = dateField.getText().trim();
 
+                    if (Asset.hasLineBreak(name)) {
+                        JOptionPane.showMessageDialog(this, "The name must fit on one line.");
+                        return;
+                    }
+                    if (Asset.toEpochDay(date) == Asset.UNKNOWN_DAY) {
+                        JOptionPane.showMessageDialog(this, "Please enter the purchase date as YYYY-MM-DD.");
+                        return;
+                    }
+
                     Asset updated = new Asset(selected.id, type, name, value, date);
-                    store.updateAsset(index, updated);
-                    listModel.set(index, updated.toString());
+                    store.updateAsset(selected.id, updated);
+                    PersistenceQueue.reportFailure(store.whenSaved(), this, "the asset");
+                    listModel.refresh();
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(this, "Invalid value format.");
                 }
             }
         });
 
-        // Remove asset
+        // Remove the selected assets in one batch
         removeBtn.addActionListener(e -> {
-            int index = assetList.getSelectedIndex();
-            if (index == -1) {
+            int[] indices = assetList.getSelectedIndices();
+            if (indices.length == 0) {
                 JOptionPane.showMessageDialog(this, "Select an asset to remove.");
                 return;
             }
 
-            int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to remove this asset?");
+            String question = indices.length == 1 ? "Are you sure you want to remove this asset?"
+                    : "Are you sure you want to remove these " + indices.length + " assets?";
+            int confirm = JOptionPane.showConfirmDialog(this, question);
             if (confirm == JOptionPane.YES_OPTION) {
-                store.removeAsset(index);
-                listModel.remove(index);
+                AssetRepository.Batch batch = new AssetRepository.Batch();
+                for (int index : indices) {
+                    batch.remove(listModel.getElementAt(index).id);
+                }
+                store.commit(batch);
+                PersistenceQueue.reportFailure(store.whenSaved(), this, "the removal");
+                assetList.clearSelection();
+                listModel.refresh();
             }
         });
 
         // Back to dashboard
         backBtn.addActionListener(e -> {
             dispose();
-            new Dashboard(username); // Use your existing dashboard class
+            new Dashboard(session);
         });
 
+        editBtn.setEnabled(false);
+        removeBtn.setEnabled(false);
+        filterField.setEnabled(false);
         setVisible(true);
+        PortfolioLoader.start(session, store, this, progressBar, listModel::refresh, () -> {
+            editBtn.setEnabled(true);
+            removeBtn.setEnabled(true);
+            filterField.setEnabled(true);
+        });
     }
 }
@@ -15,6 +15,9 @@ public class Bank extends JFrame {
     /** The username of the current user. */
     private String username;
 
+    /** The session of the current user. */
+    private UserSession session;
+
     /** Combo box for selecting a bank from supported options. */
     private JComboBox<String> bankComboBox;
 
@@ -55,7 +58,7 @@ public class Bank extends JFrame {
     private String connectedCardLastFour;
 
     /** File name for storing bank account data. */
-    private static final String BANK_DATA_FILE = "bank_accounts.dat";
+    static final String BANK_DATA_FILE = "bank_accounts.dat";
 
     /** Database of supported banks with their display names and logo references. */
     private final Map<String, String> supportedBanks = new HashMap<>();
@@ -63,10 +66,11 @@ public class Bank extends JFrame {
     /**
      * Constructs a Bank account management window for the specified user.
      *
-     * @param username the username of the current user
+     * @param session the session of the current user
      */
-    public Bank(String username) {
-        this.username = username;
+    public Bank(UserSession session) {
+        this.session = session;
+        this.username = session.getUsername();
         initializeSupportedBanks();
         loadBankAccount(); // Loads up the already connected bank account, if any
         initializeUI();
@@ -85,58 +89,75 @@ public class Bank extends JFrame {
 
     /**
      * Handles the case of when user completes the process of connecting his bank account.
-     * Loads up the already connected account.
+     * Loads up the already connected account from the session, which reads the bank
+     * data file only the first time.
      */
     private void loadBankAccount() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BANK_DATA_FILE))) {
-            @SuppressWarnings("unchecked")
-            Map<String, String[]> savedAccounts = (Map<String, String[]>) ois.readObject();
-            String[] accountData = savedAccounts.get(username);
-            if (accountData != null) {
-                connectedBankName = accountData[0];
-                connectedCardLastFour = accountData[1];
-                accountConnected = true;
-            }
-        } catch (FileNotFoundException e) {
-            // No saved accounts yet
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+        if (session.isBankConnected()) {
+            connectedBankName = session.getBankName();
+            connectedCardLastFour = session.getCardLastFour();
+            accountConnected = true;
         }
     }
 
     /**
      * Saves the bank account details once the user connects it successfully.
-     * Used later in loading the bank account again.
+     * Used later in loading the bank account again. The session is updated straight away and
+     * the file is written in the background by the {@link PersistenceQueue}.
      */
     private void saveBankAccount() {
-        try {
-            Map<String, String[]> savedAccounts = new HashMap<>();
-
-            // Try to load existing accounts first
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BANK_DATA_FILE))) {
-                @SuppressWarnings("unchecked")
-                Map<String, String[]> existingAccounts = (Map<String, String[]>) ois.readObject();
-                savedAccounts.putAll(existingAccounts);
-            } catch (FileNotFoundException e) {
-                // File doesn't exist yet, we'll create it
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+        String bankName = accountConnected ? connectedBankName : null;
+        String cardLastFour = accountConnected ? connectedCardLastFour : null;
+        session.setBankAccount(bankName, cardLastFour);
+        PersistenceQueue.reportFailure(
+                PersistenceQueue.submit(writeKey(username),
+                        () -> writeBankAccount(username, bankName, cardLastFour)),
+                this, "the bank account");
+    }
 
-            // Add/update current account
-            if (accountConnected) {
-                savedAccounts.put(username, new String[]{connectedBankName, connectedCardLastFour});
-            } else {
-                savedAccounts.remove(username);
-            }
+    /**
+     * Returns the key a user's bank link is written under in the {@link PersistenceQueue}.
+     *
+     * @param username the user
+     * @return the key
+     */
+    static String writeKey(String username) {
+        return BANK_DATA_FILE + ":" + username;
+    }
 
-            // Save all accounts
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(BANK_DATA_FILE))) {
-                oos.writeObject(savedAccounts);
-            }
-        } catch (IOException e) {
+    /**
+     * Stores one user's bank link in the bank data file, keeping every other user's.
+     *
+     * @param username     the user
+     * @param bankName     the connected bank, or null to remove the link
+     * @param cardLastFour last four digits of the card, or null to remove the link
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeBankAccount(String username, String bankName, String cardLastFour) throws IOException {
+        Map<String, String[]> savedAccounts = new HashMap<>();
+
+        // Try to load existing accounts first
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BANK_DATA_FILE))) {
+            @SuppressWarnings("unchecked")
+            Map<String, String[]> existingAccounts = (Map<String, String[]>) ois.readObject();
+            savedAccounts.putAll(existingAccounts);
+        } catch (FileNotFoundException e) {
+            // File doesn't exist yet, we'll create it
+        } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
+
+        // Add/update current account
+        if (bankName != null) {
+            savedAccounts.put(username, new String[]{bankName, cardLastFour});
+        } else {
+            savedAccounts.remove(username);
+        }
+
+        // Save all accounts
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(BANK_DATA_FILE))) {
+            oos.writeObject(savedAccounts);
+        }
     }
 
     /**
@@ -262,7 +283,7 @@ public class Bank extends JFrame {
         customizeButton(backButton);
         backButton.addActionListener(e -> {
             dispose();
-            new Dashboard(username);
+            new Dashboard(session);
         });
 
         buttonPanel.add(connectButton);
@@ -403,8 +424,13 @@ public class Bank extends JFrame {
     private void updateAccountInfo() {
         accountInfoPanel.removeAll();
 
-        // Calculate total assets value
-        double totalAssets = calculateTotalAssets();
+        // Total assets value, or null while the portfolio loads in the background
+        PortfolioSummary summary = session.getPortfolioSummary();
+        if (summary == null) {
+            session.loadPortfolio(() -> {
+                if (isDisplayable() && accountConnected) updateAccountInfo();
+            });
+        }
 
         // Connected account info
         JLabel connectedLabel = new JLabel("Connected Bank Account");
@@ -422,10 +448,12 @@ public class Bank extends JFrame {
         assetsTitle.setFont(new Font("Arial", Font.BOLD, 16));
         assetsTitle.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        JLabel totalAssetsLabel = new JLabel(String.format("Total Assets Value: $%,.2f", totalAssets));
+        JLabel totalAssetsLabel = new JLabel(summary == null ? "Total Assets Value: calculating..."
+                : String.format("Total Assets Value: $%,.2f", summary.totalValue()));
         totalAssetsLabel.setFont(new Font("Arial", Font.PLAIN, 14));
 
-        JLabel netWorthLabel = new JLabel(String.format("Estimated Net Worth: $%,.2f", totalAssets));
+        JLabel netWorthLabel = new JLabel(summary == null ? "Estimated Net Worth: calculating..."
+                : String.format("Estimated Net Worth: $%,.2f", summary.totalValue()));
         netWorthLabel.setFont(new Font("Arial", Font.BOLD, 14));
 
         accountInfoPanel.add(connectedLabel);
@@ -442,20 +470,6 @@ public class Bank extends JFrame {
         accountInfoPanel.repaint();
     }
 
-    /**
-     * Calculates the total value of all assets in the user's portfolio.
-     *
-     * @return the sum of all asset values
-     */
-    private double calculateTotalAssets() {
-        Asset_Edit.AssetStore assetStore = new Asset_Edit.AssetStore(username);
-        double total = 0;
-        for (Asset_Edit.Asset asset : assetStore.getAssets()) {
-            total += asset.value;
-        }
-        return total;
-    }
-
     /**
      * Creates a form field panel with label and text input.
      *
@@ -0,0 +1,91 @@
+/**
+ * A fixed-size Bloom filter over strings.
+ * It answers "definitely absent" or "possibly present": a negative answer is always
+ * correct, a positive one must be confirmed against the real data.
+ */
+class BloomFilter {
+    /** The bit array, 64 bits per word. */
+    private final long[] bits;
+
+    /** Total number of bits; always a power of two. */
+    private final long bitCount;
+
+    /** Number of bit positions probed per element. */
+    private final int hashCount;
+
+    /** Most bits a filter takes: 2^31 bits, 256 MiB. */
+    static final long MAX_BITS = 1L << 31;
+
+    /**
+     * Creates a filter sized for the expected number of elements and false-positive rate.
+     * The bit array is capped at {@link #MAX_BITS} and at an eighth of the heap, so a huge
+     * estimate cannot exhaust memory; past the cap the filter just answers "possibly present"
+     * more often than asked for.
+     *
+     * @param expectedElements how many elements will be added
+     * @param falsePositiveRate the acceptable probability of a false "possibly present"
+     */
+    BloomFilter(long expectedElements, double falsePositiveRate) {
+        long n = Math.max(1, expectedElements);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long size = Long.highestOneBit(Math.max(64, m - 1)) << 1;
+        long heapBits = Long.highestOneBit(Math.max(64, Runtime.getRuntime().maxMemory()));
+        this.bitCount = Math.min(size, Math.min(MAX_BITS, heapBits));
+        this.bits = new long[(int) (bitCount >>> 6)];
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    /**
+     * Adds an element.
+     *
+     * @param value the element
+     */
+    void add(String value) {
+        long h = hash(value);
+        long h1 = h;
+        long h2 = (h >>> 32) | 1;
+        long mask = bitCount - 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) & mask;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks whether an element may have been added.
+     *
+     * @param value the element
+     * @return false if the element was definitely never added
+     */
+    boolean mightContain(String value) {
+        long h = hash(value);
+        long h1 = h;
+        long h2 = (h >>> 32) | 1;
+        long mask = bitCount - 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) & mask;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Spreads a string's characters over 64 bits (FNV-1a followed by a murmur finaliser).
+     *
+     * @param value the string
+     * @return a well-mixed hash
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,430 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * A binary, column-oriented asset file that is read through a {@link MappedByteBuffer}.
+ * <p>
+ * Each asset field is stored as its own column, so a total or a Zakat sum scans just the
+ * value column (and the type or date column when filtering) without building {@link Asset}
+ * objects or parsing text. Layout, all little-endian, each section 8-byte aligned:
+ * <pre>
+ *   header    magic "ASTCOL01", version, row count, dictionary size, heap length,
+ *             next free asset id (0 in files written before it was recorded)
+ *   summary   a {@link PortfolioSummary} line, from version 2 on
+ *   ids       int[rows]
+ *   values    double[rows]
+ *   types     byte[rows]      index into the type dictionary
+ *   days      int[rows]       purchase date as epoch day, or Asset.UNKNOWN_DAY
+ *   names     int[rows]       string heap offset of the name
+ *   dates     int[rows]       heap offset of the original date text, or -1 when it is
+ *                             the ISO form of the epoch day
+ *   dict      int[dictSize]   heap offsets of the type names; the standard types come first
+ *   heap      [u16 length][UTF-8 bytes] entries
+ * </pre>
+ * The class also converts between this format and the CSV format; run it from the command line
+ * with {@code to-columnar <csv> <col>} or {@code to-csv <col> <csv>}.
+ */
+class ColumnarAssetFile {
+    /** Magic number at the start of every file ("ASTCOL01"). */
+    private static final long MAGIC = 0x31304c4f43545341L;
+
+    /** Current format version. */
+    private static final int VERSION = 2;
+
+    /** Size of the fixed header fields in bytes, which is the whole header in version 1. */
+    private static final int FIELDS = 32;
+
+    /** Offset of the summary line in version 2 files. */
+    static final int SUMMARY_OFFSET = FIELDS;
+
+    /** Size of the header written by this version. */
+    private static final int HEADER = align(FIELDS + PortfolioSummary.LENGTH);
+
+    /** Header offset of the next free asset id, which is rewritten in place as ids are reserved. */
+    private static final int NEXT_ID = 24;
+
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final int dictSize;
+    private final int idsOff, valuesOff, typesOff, daysOff, namesOff, datesOff, dictOff, heapOff;
+    private final String[] dictionary;
+
+    /**
+     * Maps an existing file.
+     *
+     * @param path the file to read
+     * @throws IOException if the file cannot be mapped or is not a columnar asset file
+     */
+    private ColumnarAssetFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int version = buffer.limit() < FIELDS ? 0 : buffer.getInt(8);
+        if (buffer.limit() < FIELDS || buffer.getLong(0) != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Not a columnar asset file: " + path);
+        }
+        rows = buffer.getInt(12);
+        dictSize = buffer.getInt(16);
+        idsOff = version == 1 ? FIELDS : HEADER;
+        valuesOff = align(idsOff + 4 * rows);
+        typesOff = align(valuesOff + 8 * rows);
+        daysOff = align(typesOff + rows);
+        namesOff = align(daysOff + 4 * rows);
+        datesOff = align(namesOff + 4 * rows);
+        dictOff = align(datesOff + 4 * rows);
+        heapOff = align(dictOff + 4 * dictSize);
+
+        dictionary = new String[dictSize];
+        for (int i = 0; i < dictSize; i++) {
+            dictionary[i] = heapString(buffer.getInt(dictOff + 4 * i));
+        }
+    }
+
+    /**
+     * Maps a columnar asset file for column scans.
+     *
+     * @param path the file to read
+     * @return the mapped file
+     * @throws IOException if the file cannot be mapped or has the wrong format
+     */
+    static ColumnarAssetFile open(Path path) throws IOException {
+        return new ColumnarAssetFile(path);
+    }
+
+    /**
+     * Returns the number of assets in the file.
+     *
+     * @return the row count
+     */
+    int size() {
+        return rows;
+    }
+
+    /**
+     * Returns the next free asset id recorded in the header.
+     *
+     * @return the id, or -1 if the file does not record one
+     */
+    int nextId() {
+        int id = buffer.getInt(NEXT_ID);
+        return id > 0 ? id : -1;
+    }
+
+    /**
+     * Returns the value of one asset.
+     *
+     * @param row the row number
+     * @return the value
+     */
+    double value(int row) {
+        return buffer.getDouble(valuesOff + 8 * row);
+    }
+
+    /**
+     * Returns the purchase date of one asset as an epoch day.
+     *
+     * @param row the row number
+     * @return the epoch day, or {@link Asset#UNKNOWN_DAY}
+     */
+    int epochDay(int row) {
+        return buffer.getInt(daysOff + 4 * row);
+    }
+
+    /**
+     * Returns the type name of one asset.
+     *
+     * @param row the row number
+     * @return the type name
+     */
+    String type(int row) {
+        return dictionary[buffer.get(typesOff + row) & 0xFF];
+    }
+
+    /**
+     * Sums the value column.
+     *
+     * @return the total value of all assets
+     */
+    double totalValue() {
+        double total = 0;
+        for (int i = 0, pos = valuesOff; i < rows; i++, pos += 8) {
+            total += buffer.getDouble(pos);
+        }
+        return total;
+    }
+
+    /**
+     * Sums the value column for rows of one type, testing only the one-byte type code per row.
+     *
+     * @param type the type name
+     * @return the total value of assets of that type
+     */
+    double totalValue(String type) {
+        int code = Arrays.asList(dictionary).indexOf(type);
+        if (code < 0) return 0;
+        double total = 0;
+        for (int i = 0; i < rows; i++) {
+            if ((buffer.get(typesOff + i) & 0xFF) == code) {
+                total += buffer.getDouble(valuesOff + 8 * i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Builds the full asset list.
+     *
+     * @return the assets in file order
+     */
+    List<Asset> toAssets() {
+        List<Asset> assets = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            assets.add(asset(i));
+        }
+        return assets;
+    }
+
+    /**
+     * Builds the asset in one row.
+     *
+     * @param row the row number
+     * @return the asset
+     */
+    Asset asset(int row) {
+        int day = epochDay(row);
+        int dateRef = buffer.getInt(datesOff + 4 * row);
+        String date = dateRef >= 0 ? heapString(dateRef) : LocalDate.ofEpochDay(day).toString();
+        return new Asset(buffer.getInt(idsOff + 4 * row), type(row),
+                heapString(buffer.getInt(namesOff + 4 * row)), value(row), date);
+    }
+
+    /**
+     * Reads every asset from a columnar file.
+     *
+     * @param path the file to read
+     * @return the assets in file order
+     * @throws IOException if the file cannot be read
+     */
+    static List<Asset> read(Path path) throws IOException {
+        return open(path).toAssets();
+    }
+
+    /**
+     * Writes assets to a columnar file, replacing any existing file.
+     *
+     * @param path   the file to write
+     * @param assets the assets in the order they should be stored
+     * @param nextId the next free asset id, for the header
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path path, List<Asset> assets, int nextId) throws IOException {
+        int rows = assets.size();
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        for (String type : Asset.TYPES) {
+            codes.put(type, codes.size());
+        }
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        int[] nameRefs = new int[rows];
+        int[] dateRefs = new int[rows];
+        int[] days = new int[rows];
+        byte[] types = new byte[rows];
+        for (int i = 0; i < rows; i++) {
+            Asset asset = assets.get(i);
+            Integer code = codes.get(asset.type);
+            if (code == null) {
+                if (codes.size() > 0xFF) throw new IOException("Too many distinct asset types");
+                code = codes.size();
+                codes.put(asset.type, code);
+            }
+            types[i] = (byte) (int) code;
+            nameRefs[i] = putString(heap, asset.name);
+            days[i] = Asset.toEpochDay(asset.purchaseDate);
+            dateRefs[i] = Asset.isIsoDate(asset.purchaseDate, days[i]) ? -1 : putString(heap, asset.purchaseDate);
+        }
+        int[] dictRefs = new int[codes.size()];
+        int d = 0;
+        for (String type : codes.keySet()) {
+            dictRefs[d++] = putString(heap, type);
+        }
+
+        int valuesOff = align(HEADER + 4 * rows);
+        int typesOff = align(valuesOff + 8 * rows);
+        int daysOff = align(typesOff + rows);
+        int namesOff = align(daysOff + 4 * rows);
+        int datesOff = align(namesOff + 4 * rows);
+        int dictOff = align(datesOff + 4 * rows);
+        int heapOff = align(dictOff + 4 * dictRefs.length);
+        long total = (long) heapOff + heap.size();
+        if (total > Integer.MAX_VALUE) throw new IOException("Portfolio too large for a single columnar file");
+
+        ByteBuffer out = ByteBuffer.allocate((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        out.putLong(0, MAGIC).putInt(8, VERSION).putInt(12, rows).putInt(16, dictRefs.length).putInt(20, heap.size())
+                .putInt(NEXT_ID, nextId);
+        for (int i = 0; i < rows; i++) {
+            Asset asset = assets.get(i);
+            out.putInt(HEADER + 4 * i, asset.id);
+            out.putDouble(valuesOff + 8 * i, asset.value);
+            out.put(typesOff + i, types[i]);
+            out.putInt(daysOff + 4 * i, days[i]);
+            out.putInt(namesOff + 4 * i, nameRefs[i]);
+            out.putInt(datesOff + 4 * i, dateRefs[i]);
+        }
+        for (int i = 0; i < dictRefs.length; i++) {
+            out.putInt(dictOff + 4 * i, dictRefs[i]);
+        }
+        out.put(SUMMARY_OFFSET, PortfolioSummary.placeholder());
+        out.position(heapOff);
+        out.put(heap.toByteArray());
+        out.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Converts a CSV asset file to the columnar format.
+     *
+     * @param csv      the CSV file to read
+     * @param columnar the columnar file to write
+     * @throws IOException if either file cannot be accessed
+     */
+    static void convertToColumnar(Path csv, Path columnar) throws IOException {
+        AssetTable assets = new AssetTable();
+        AssetFileLoader.load(csv, assets);
+        int nextId = AssetFileLoader.readNextId(csv);
+        write(columnar, assets.view(), nextId > 0 ? nextId : assets.maxId() + 1);
+    }
+
+    /**
+     * Converts a columnar asset file to CSV.
+     *
+     * @param columnar the columnar file to read
+     * @param csv      the CSV file to write
+     * @throws IOException if either file cannot be accessed
+     */
+    static void convertToCsv(Path columnar, Path csv) throws IOException {
+        ColumnarAssetFile file = open(columnar);
+        List<Asset> assets = file.toAssets();
+        int nextId = file.nextId();
+        if (nextId < 0) {
+            nextId = 1;
+            for (Asset asset : assets) {
+                nextId = Math.max(nextId, asset.id + 1);
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write(AssetFileLoader.header(nextId));
+            for (Asset asset : assets) {
+                writer.write(asset.toFileString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads the next free id from a columnar file's header.
+     *
+     * @param channel the file
+     * @return the id, or -1 if the file does not record one
+     * @throws IOException if the file cannot be read
+     */
+    static int readNextId(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (bytes.hasRemaining() && channel.read(bytes, NEXT_ID + bytes.position()) > 0) {
+            // keep reading until the field is complete or the file ends
+        }
+        if (bytes.hasRemaining()) return -1;
+        int id = bytes.getInt(0);
+        return id > 0 ? id : -1;
+    }
+
+    /**
+     * Overwrites the next free id in a columnar file's header.
+     *
+     * @param channel the file, open for writing
+     * @param nextId  the next free asset id
+     * @throws IOException if the file cannot be written
+     */
+    static void writeNextId(FileChannel channel, int nextId) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, nextId);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, NEXT_ID + bytes.position());
+        }
+    }
+
+    /**
+     * Reads a heap entry.
+     *
+     * @param offset the entry's offset within the heap
+     * @return the decoded string
+     */
+    private String heapString(int offset) {
+        int pos = heapOff + offset;
+        int length = buffer.getShort(pos) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(pos + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a string to the heap being built.
+     *
+     * @param heap  the heap
+     * @param value the string
+     * @return the entry's offset
+     * @throws IOException if the string is longer than 65535 bytes
+     */
+    private static int putString(ByteArrayOutputStream heap, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IOException("String too long for columnar file");
+        int offset = heap.size();
+        heap.write(bytes.length & 0xFF);
+        heap.write(bytes.length >>> 8);
+        heap.write(bytes);
+        return offset;
+    }
+
+    /**
+     * Rounds an offset up to the next multiple of 8.
+     *
+     * @param offset the offset
+     * @return the aligned offset
+     */
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * Command-line conversion between the CSV and columnar formats.
+     *
+     * @param args {@code to-columnar <csv> <col>} or {@code to-csv <col> <csv>}
+     */
+    public static void main(String[] args) {
+        if (args.length != 3 || !args[0].equals("to-columnar") && !args[0].equals("to-csv")) {
+            System.out.println("Usage: java ColumnarAssetFile to-columnar <csv> <col> | to-csv <col> <csv>");
+            System.exit(2);
+        }
+        try {
+            if (args[0].equals("to-columnar")) {
+                convertToColumnar(Paths.get(args[1]), Paths.get(args[2]));
+            } else {
+                convertToCsv(Paths.get(args[1]), Paths.get(args[2]));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -1,24 +1,31 @@
 import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
  * The Dashboard class represents the main menu of the application
  * after a successful login. It allows users to navigate to different
  * functionalities such as adding/removing assets, zakat calculator,
- * bank account, and logout.
+ * bank account, and logout. The portfolio totals shown are updated when another process
+ * changes the user's assets.
  */
 public class Dashboard extends JFrame {
-    /** The logged-in user's username. */
-    private String username;
+    /** The logged-in user's session. */
+    private UserSession session;
+
+    /** Shows the portfolio's size and value. */
+    private JLabel summaryLabel;
 
     /**
      * Constructs the Dashboard GUI for the specified user.
      *
-     * @param username The username of the logged-in user
+     * @param session The session of the logged-in user
      */
-    public Dashboard(String username) {
-        this.username = username;
+    public Dashboard(UserSession session) {
+        this.session = session;
+        String username = session.getUsername();
 
         setTitle("Dashboard ");
         setSize(700, 400);
@@ -29,6 +36,19 @@ public class Dashboard extends JFrame {
         welcomeLabel.setFont(new Font("Arial", Font.BOLD, 16));
         welcomeLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
+        summaryLabel = new JLabel();
+        summaryLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        summaryLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        showSummary();
+        Runnable onChange = this::showSummary;
+        session.addChangeListener(onChange);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                session.removeChangeListener(onChange);
+            }
+        });
+
         JButton func1Button = new JButton("Add asset");
         JButton func2Button = new JButton("Remove/Edit Asset");
         JButton func3Button = new JButton("Zakat calculator");
@@ -44,30 +64,31 @@ public class Dashboard extends JFrame {
         // Add Asset
         func1Button.addActionListener(e -> {
             dispose();
-            new Asset_Add(username);
+            new Asset_Add(session);
         });
 
         // Remove/Edit Asset
         func2Button.addActionListener(e -> {
             dispose();
-            new Asset_Edit(username);
+            new Asset_Edit(session);
         });
 
         // Zakat Calculator
         func3Button.addActionListener(e -> {
             dispose();
-            new Zakat(username);
+            new Zakat(session);
         });
 
         // Bank Account
         func4Button.addActionListener(e -> {
             dispose();
-            new Bank(username);
+            new Bank(session);
         });
 
         // Logout
         logoutButton.addActionListener(e -> {
             dispose();
+            session.close();
             new LoginPage();
         });
 
@@ -75,6 +96,8 @@ public class Dashboard extends JFrame {
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
         panel.setBorder(new EmptyBorder(20, 20, 20, 20));
         panel.add(welcomeLabel);
+        panel.add(Box.createRigidArea(new Dimension(0, 5)));
+        panel.add(summaryLabel);
         panel.add(Box.createRigidArea(new Dimension(0, 15)));
         panel.add(func1Button);
         panel.add(Box.createRigidArea(new Dimension(0, 10)));
@@ -90,6 +113,22 @@ public class Dashboard extends JFrame {
         setVisible(true);
     }
 
+    /**
+     * Shows the portfolio's size and value. If they are not known without reading the whole
+     * portfolio, a placeholder is shown while it loads in the background.
+     */
+    private void showSummary() {
+        PortfolioSummary summary = session.getPortfolioSummary();
+        if (summary != null) {
+            summaryLabel.setText(String.format("%d assets worth $%,.2f", summary.count(), summary.totalValue()));
+            return;
+        }
+        summaryLabel.setText("Calculating portfolio totals...");
+        session.loadPortfolio(() -> {
+            if (isDisplayable()) showSummary();
+        });
+    }
+
     /**
      * Applies consistent styling to all buttons used in the dashboard.
      *
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the data directory (the working directory, where every data file lives) and tells
+ * listeners when one of their files is created, changed or deleted.
+ * <p>
+ * One daemon thread serves every listener. It waits on a {@link WatchService}, then keeps
+ * collecting events until the directory has been quiet for {@value #QUIET_MILLIS} ms, so a burst
+ * of writes to one file results in one call. Listeners run on the watcher thread and should not
+ * touch Swing components directly.
+ */
+final class DataWatcher {
+    /** How long the directory must be quiet before collected events are delivered. */
+    private static final long QUIET_MILLIS = 50;
+
+    /** Listeners by file name. */
+    private static final Map<String, List<Runnable>> listeners = new ConcurrentHashMap<>();
+
+    /** The watcher thread, or null until the first listener is added. */
+    private static Thread thread;
+
+    /**
+     * Prevents instantiation.
+     */
+    private DataWatcher() {
+    }
+
+    /**
+     * Calls a listener whenever a file in the data directory changes.
+     *
+     * @param fileName the file's name, without a directory
+     * @param listener called on the watcher thread after each change
+     */
+    static void watch(String fileName, Runnable listener) {
+        listeners.computeIfAbsent(fileName, k -> new CopyOnWriteArrayList<>()).add(listener);
+        start();
+    }
+
+    /**
+     * Stops calling a listener.
+     *
+     * @param fileName the file name it was added for
+     * @param listener the listener
+     */
+    static void unwatch(String fileName, Runnable listener) {
+        List<Runnable> forFile = listeners.get(fileName);
+        if (forFile != null) {
+            forFile.remove(listener);
+        }
+    }
+
+    /**
+     * Starts the watcher thread if it is not running yet.
+     */
+    private static synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(DataWatcher::run, "data-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for changes and delivers them until the thread is interrupted.
+     */
+    private static void run() {
+        Path dir = Paths.get("").toAbsolutePath();
+        try (WatchService service = dir.getFileSystem().newWatchService()) {
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                boolean overflow = false;
+                WatchKey key = service.take();
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(((Path) event.context()).getFileName().toString());
+                        }
+                    }
+                    if (!key.reset()) return;
+                    key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                // Events were lost, so every file may have changed
+                deliver(overflow ? listeners.keySet() : changed);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // The file system is going away
+        }
+    }
+
+    /**
+     * Calls the listeners of each changed file once.
+     *
+     * @param fileNames the changed files
+     */
+    private static void deliver(Set<String> fileNames) {
+        for (String fileName : fileNames) {
+            List<Runnable> forFile = listeners.get(fileName);
+            if (forFile == null) continue;
+            for (Runnable listener : forFile) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
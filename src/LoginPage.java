@@ -14,6 +14,9 @@ public class LoginPage extends JFrame {
     /** Password field for entering the password. */
     private JPasswordField passwordField;
 
+    /** Button that submits the credentials. */
+    private JButton loginButton;
+
     /**
      * Constructs a new LoginPage window.
      * Sets up the UI components, layout, and event handlers.
@@ -30,7 +33,7 @@ public class LoginPage extends JFrame {
         JLabel passLabel = new JLabel("Password:");
         passwordField = new JPasswordField(20);
 
-        JButton loginButton = new JButton("Login");
+        loginButton = new JButton("Login");
         JButton signUpButton = new JButton("Sign Up");
 
         customizeButton(loginButton);
@@ -93,6 +96,8 @@ public class LoginPage extends JFrame {
     /**
      * Handles login validation by checking user credentials.
      * If valid, it opens the dashboard. If invalid, it shows an error dialog.
+     * The password hash is checked off the event dispatch thread; the button is
+     * disabled until the result comes back.
      */
     private void handleLogin() {
         String user = usernameField.getText();
@@ -103,11 +108,17 @@ public class LoginPage extends JFrame {
             return;
         }
 
-        if (UserDatabase.validateUser(user, pass)) {
-            dispose();
-            new Dashboard(user);
-        } else {
-            JOptionPane.showMessageDialog(this, "Invalid credentials!");
-        }
+        loginButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        UserDatabase.validateUserAsync(user, pass).whenComplete((valid, error) -> SwingUtilities.invokeLater(() -> {
+            loginButton.setEnabled(true);
+            setCursor(Cursor.getDefaultCursor());
+            if (error == null && valid) {
+                dispose();
+                new Dashboard(new UserSession(user));
+            } else {
+                JOptionPane.showMessageDialog(this, "Invalid credentials!");
+            }
+        }));
     }
 }
@@ -0,0 +1,135 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Creates and checks salted PBKDF2 password hashes using the JDK's built-in provider.
+ * Hashes are stored as {@code pbkdf2$<iterations>$<salt>$<hash>} with Base64 salt and hash,
+ * so the cost can be raised later without breaking existing entries.
+ * <p>
+ * The iteration count defaults to {@value #DEFAULT_ITERATIONS} and can be tuned with the
+ * {@code passwords.iterations} system property.
+ */
+class PasswordHasher {
+    /** Prefix that marks a stored value as a hash rather than a legacy plaintext password. */
+    private static final String PREFIX = "pbkdf2$";
+
+    /** The JDK algorithm name. */
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    /** Iteration count used when the system property is not set. */
+    static final int DEFAULT_ITERATIONS = 210_000;
+
+    /** Salt length in bytes. */
+    private static final int SALT_BYTES = 16;
+
+    /** Derived key length in bits. */
+    private static final int KEY_BITS = 256;
+
+    /** Iteration count used for new hashes. */
+    private static final int ITERATIONS = Integer.getInteger("passwords.iterations", DEFAULT_ITERATIONS);
+
+    /** Source of salts. */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Hashes a password with a fresh random salt.
+     *
+     * @param password the plaintext password
+     * @return the encoded hash
+     */
+    static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + ITERATIONS + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, ITERATIONS));
+    }
+
+    /**
+     * Checks a password against a stored value. Legacy plaintext values are compared directly.
+     * Both comparisons take the same time whatever position the first difference is at.
+     *
+     * @param password the password that was entered
+     * @param stored   the stored hash or legacy plaintext password
+     * @return true if the password matches
+     */
+    static boolean verify(String password, String stored) {
+        String[] parts = fields(stored);
+        if (parts == null) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] salt = Base64.getDecoder().decode(parts[2]);
+        byte[] expected = Base64.getDecoder().decode(parts[3]);
+        return MessageDigest.isEqual(derive(password, salt, Integer.parseInt(parts[1])), expected);
+    }
+
+    /**
+     * Checks whether a stored value should be replaced with a fresh hash, either because it
+     * is still plaintext or because it was made with fewer iterations than currently configured.
+     *
+     * @param stored the stored value
+     * @return true if the value should be rehashed after the next successful login
+     */
+    static boolean needsRehash(String stored) {
+        String[] parts = fields(stored);
+        return parts == null || Integer.parseInt(parts[1]) < ITERATIONS;
+    }
+
+    /**
+     * Checks whether a stored value is a hash produced by this class. The whole
+     * {@code pbkdf2$<iterations>$<salt>$<hash>} shape is checked, not just the prefix, so a
+     * legacy plaintext password that happens to start with the prefix is still read as one.
+     *
+     * @param stored the stored value
+     * @return true if it is a well-formed hash
+     */
+    static boolean isHashed(String stored) {
+        return fields(stored) != null;
+    }
+
+    /**
+     * Splits a stored hash into its fields, checking each one.
+     *
+     * @param stored the stored value
+     * @return the prefix, iteration count, salt and hash as text, or null if the value is not a
+     *         hash: the iterations must be a positive number, the salt non-empty Base64 and the
+     *         hash Base64 of a {@value #KEY_BITS}-bit key
+     */
+    private static String[] fields(String stored) {
+        if (!stored.startsWith(PREFIX)) return null;
+        String[] parts = stored.split("\\$", -1);
+        if (parts.length != 4) return null;
+        try {
+            if (Integer.parseInt(parts[1]) <= 0) return null;
+            Base64.Decoder base64 = Base64.getDecoder();
+            if (base64.decode(parts[2]).length == 0 || base64.decode(parts[3]).length != KEY_BITS / 8) return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return parts;
+    }
+
+    /**
+     * Runs PBKDF2 over a password.
+     *
+     * @param password   the password
+     * @param salt       the salt
+     * @param iterations the iteration count
+     * @return the derived key
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs file writes on one background thread so screens never wait for the disk.
+ * <p>
+ * A write is queued under a key naming what it saves. Writes wait {@value #COALESCE_MILLIS} ms
+ * before they run, and a write queued under a key that is still waiting replaces the waiting
+ * one instead of running after it, so a burst of saves of the same thing costs one write.
+ * Callers get a future that completes when their data is on disk, or fails with the write's
+ * exception. At most {@value #CAPACITY} keys wait at once; beyond that {@link #submit} blocks
+ * until the writer catches up. Everything still queued is written before the JVM exits.
+ */
+final class PersistenceQueue {
+    /** How long a write waits for later writes under the same key. */
+    static final long COALESCE_MILLIS = 20;
+
+    /** Largest number of keys waiting to be written. */
+    static final int CAPACITY = 256;
+
+    /**
+     * A file write.
+     */
+    interface Write {
+        /**
+         * Performs the write.
+         *
+         * @throws IOException if it fails
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * A queued write and the future shared by everyone it stands for.
+     */
+    private static final class Pending {
+        /** The latest write under this key. */
+        Write write;
+
+        /** When the write may run, in {@link System#nanoTime()} units. */
+        final long due;
+
+        /** Completed once the write has run. */
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * Creates a queued write.
+         *
+         * @param write the write
+         * @param due   when it may run
+         */
+        Pending(Write write, long due) {
+            this.write = write;
+            this.due = due;
+        }
+    }
+
+    /** Waiting writes by key, oldest first; also the lock for the fields below. */
+    private static final Map<Object, Pending> queued = new LinkedHashMap<>();
+
+    /** The writer thread, or null until the first write is queued. */
+    private static Thread writer;
+
+    /** Whether the writer is running a write it has taken off the queue. */
+    private static boolean busy;
+
+    /** Key of the write the writer is running, or null. */
+    private static Object running;
+
+    /** Number of callers waiting in {@link #flush()}; while positive, writes run without waiting. */
+    private static int flushing;
+
+    /**
+     * Prevents instantiation.
+     */
+    private PersistenceQueue() {
+    }
+
+    /**
+     * Queues a write, or replaces the write still waiting under the same key.
+     *
+     * @param key   what the write saves, for example a file name
+     * @param write the write
+     * @return completes when the write, or a later one under the same key, has run
+     */
+    static CompletableFuture<Void> submit(Object key, Write write) {
+        synchronized (queued) {
+            while (true) {
+                Pending pending = queued.get(key);
+                if (pending != null) {
+                    pending.write = write;
+                    return pending.done;
+                }
+                if (queued.size() < CAPACITY) break;
+                try {
+                    queued.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return CompletableFuture.failedFuture(new IOException("Interrupted while queueing a write", e));
+                }
+            }
+            Pending pending = new Pending(write, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COALESCE_MILLIS));
+            queued.put(key, pending);
+            start();
+            queued.notifyAll();
+            return pending.done;
+        }
+    }
+
+    /**
+     * Checks whether a write under a key is waiting or running, so a change to its file seen
+     * meanwhile may be an earlier state that the write is about to replace.
+     *
+     * @param key what the write saves
+     * @return true until the last write queued under the key has finished
+     */
+    static boolean isPending(Object key) {
+        synchronized (queued) {
+            return queued.containsKey(key) || key.equals(running);
+        }
+    }
+
+    /**
+     * Runs every queued write straight away and waits until they have finished.
+     * Does nothing when called by a write.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void flush() throws InterruptedException {
+        synchronized (queued) {
+            if (Thread.currentThread() == writer) return;
+            flushing++;
+            queued.notifyAll();
+            try {
+                while (busy || !queued.isEmpty()) {
+                    queued.wait();
+                }
+            } finally {
+                flushing--;
+            }
+        }
+    }
+
+    /**
+     * Tells the user, on the event dispatch thread, if a queued write fails.
+     *
+     * @param save   the write's future
+     * @param parent the window to show the message over
+     * @param what   what was being saved, for the message
+     */
+    static void reportFailure(CompletableFuture<?> save, Component parent, String what) {
+        save.whenComplete((result, failure) -> {
+            if (failure == null) return;
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(parent,
+                    "Could not save " + what + ": " + failure.getMessage(),
+                    "Save Failed",
+                    JOptionPane.ERROR_MESSAGE));
+        });
+    }
+
+    /**
+     * Starts the writer thread, and the shutdown hook that flushes it, if they are not running yet.
+     * Must be called while holding the queue's lock.
+     */
+    private static void start() {
+        if (writer != null) return;
+        writer = new Thread(PersistenceQueue::run, "persistence-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "persistence-flush"));
+    }
+
+    /**
+     * Body of the writer thread: runs each write once it is due, oldest first.
+     */
+    private static void run() {
+        while (true) {
+            Pending next;
+            synchronized (queued) {
+                busy = false;
+                running = null;
+                queued.notifyAll();
+                try {
+                    while (true) {
+                        Iterator<Map.Entry<Object, Pending>> oldest = queued.entrySet().iterator();
+                        if (!oldest.hasNext()) {
+                            queued.wait();
+                            continue;
+                        }
+                        Map.Entry<Object, Pending> entry = oldest.next();
+                        next = entry.getValue();
+                        long wait = next.due - System.nanoTime();
+                        if (wait <= 0 || flushing > 0) {
+                            running = entry.getKey();
+                            oldest.remove();
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(queued, wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                busy = true;
+                queued.notifyAll();
+            }
+            try {
+                next.write.run();
+                next.done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                next.done.completeExceptionally(e);
+            }
+        }
+    }
+}
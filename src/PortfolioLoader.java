@@ -0,0 +1,144 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads a user's portfolio on a background thread for a window that is already showing.
+ * <p>
+ * Rows are added to the repository batch by batch as the file is read; after each batch the
+ * window is told so its {@link AssetListModel} can show them, and a progress bar shows how much
+ * of the file has been read. Closing the window cancels the load. A portfolio that is already
+ * loaded is handed over straight away, so only the first window to need it waits.
+ */
+class PortfolioLoader extends SwingWorker<Boolean, Integer> {
+    private final UserSession session;
+    private final AssetRepository repository;
+    private final JProgressBar progressBar;
+    private final Runnable onRows;
+    private final Runnable onLoaded;
+
+    /**
+     * Creates a loader.
+     *
+     * @param session     the session to hand the loaded portfolio to
+     * @param repository  the portfolio from {@link UserSession#openPortfolio()}
+     * @param progressBar shows how much has been read
+     * @param onRows      called on the event dispatch thread after new rows have been added
+     * @param onLoaded    called on the event dispatch thread once every row is in
+     */
+    private PortfolioLoader(UserSession session, AssetRepository repository, JProgressBar progressBar,
+                            Runnable onRows, Runnable onLoaded) {
+        this.session = session;
+        this.repository = repository;
+        this.progressBar = progressBar;
+        this.onRows = onRows;
+        this.onLoaded = onLoaded;
+    }
+
+    /**
+     * Makes sure a window's portfolio gets loaded, starting a background load if it is not
+     * loaded yet.
+     *
+     * @param session     the user's session
+     * @param repository  the portfolio from {@link UserSession#openPortfolio()}
+     * @param window      the window showing it; closing it cancels the load
+     * @param progressBar shows progress while loading and is hidden afterwards
+     * @param onRows      called on the event dispatch thread after new rows have been added
+     * @param onLoaded    called on the event dispatch thread once every row is in
+     */
+    static void start(UserSession session, AssetRepository repository, Window window, JProgressBar progressBar,
+                      Runnable onRows, Runnable onLoaded) {
+        if (repository.isLoaded()) {
+            session.portfolioLoaded(repository);
+            progressBar.setVisible(false);
+            onRows.run();
+            onLoaded.run();
+            return;
+        }
+        progressBar.setStringPainted(true);
+        progressBar.setString("Loading assets...");
+        PortfolioLoader loader = new PortfolioLoader(session, repository, progressBar, onRows, onLoaded);
+        loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                loader.cancel(false);
+            }
+        });
+        loader.execute();
+    }
+
+    /**
+     * Loads a session's portfolio on a background thread without a window or progress bar, for
+     * screens that only show its totals. The session is handed the portfolio on the event
+     * dispatch thread, or told if another window cancelled the load so it can start again.
+     *
+     * @param session    the user's session
+     * @param repository the portfolio from {@link UserSession#openPortfolio()}
+     * @return the running load
+     */
+    static SwingWorker<Boolean, Void> loadInBackground(UserSession session, AssetRepository repository) {
+        SwingWorker<Boolean, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Boolean doInBackground() {
+                return repository.load(null);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    if (get()) {
+                        session.portfolioLoaded(repository);
+                    } else {
+                        session.portfolioLoadCancelled();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        worker.execute();
+        return worker;
+    }
+
+    @Override
+    protected Boolean doInBackground() {
+        return repository.load((rows, percent) -> {
+            setProgress(percent);
+            publish(rows);
+            return !isCancelled();
+        });
+    }
+
+    @Override
+    protected void process(List<Integer> rowCounts) {
+        progressBar.setString(String.format("Loading assets... %,d so far", rowCounts.get(rowCounts.size() - 1)));
+        onRows.run();
+    }
+
+    @Override
+    protected void done() {
+        if (isCancelled()) return;
+        try {
+            if (get()) {
+                session.portfolioLoaded(repository);
+                progressBar.setVisible(false);
+                onRows.run();
+                onLoaded.run();
+            } else {
+                // Another window's load of the same portfolio was cancelled
+                progressBar.setString("Loading was interrupted; please reopen this screen");
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            progressBar.setString("Loading failed");
+        }
+    }
+}
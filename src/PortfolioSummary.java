@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Totals over a portfolio: asset count, total value, smallest and largest value, and count and
+ * value for each standard type, with every other type lumped together.
+ * <p>
+ * A summary is stored in the base file's header as one fixed-width line,
+ * {@code #summary=<hex fields>}, so it can be rewritten in place after every change and read at
+ * startup without loading the portfolio. The line records the base file and journal sizes it was
+ * written for; if either file has a different size when it is read, the summary is ignored.
+ */
+final class PortfolioSummary {
+    /** Start of the stored line. */
+    private static final String PREFIX = "#summary=";
+
+    /** Number of type buckets: the standard types and one for the rest. */
+    private static final int BUCKETS = Asset.TYPES.length + 1;
+
+    /** Length of the stored line in bytes, including its line break. */
+    static final int LENGTH = PREFIX.length() + 16 * 2 + 8 + 16 * 3 + BUCKETS * (8 + 16) + 1;
+
+    /** Number of assets. */
+    private final int count;
+
+    /** Sum of all values. */
+    private final double total;
+
+    /** Smallest value, or NaN when there are no assets. */
+    private final double min;
+
+    /** Largest value, or NaN when there are no assets. */
+    private final double max;
+
+    /** Asset count per bucket. */
+    private final int[] counts;
+
+    /** Value per bucket. */
+    private final double[] values;
+
+    /**
+     * Creates a summary.
+     *
+     * @param count  the number of assets
+     * @param total  the sum of all values
+     * @param min    the smallest value
+     * @param max    the largest value
+     * @param counts the count per bucket: one per standard type, then the rest
+     * @param values the value per bucket
+     */
+    PortfolioSummary(int count, double total, double min, double max, int[] counts, double[] values) {
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.counts = Arrays.copyOf(counts, BUCKETS);
+        this.values = Arrays.copyOf(values, BUCKETS);
+    }
+
+    /**
+     * Returns the number of assets.
+     *
+     * @return the count
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Returns the total value of all assets.
+     *
+     * @return the total
+     */
+    double totalValue() {
+        return total;
+    }
+
+    /**
+     * Returns the smallest asset value.
+     *
+     * @return the value, or NaN if there are no assets
+     */
+    double minValue() {
+        return min;
+    }
+
+    /**
+     * Returns the largest asset value.
+     *
+     * @return the value, or NaN if there are no assets
+     */
+    double maxValue() {
+        return max;
+    }
+
+    /**
+     * Returns the number of assets of a type.
+     *
+     * @param type one of {@link Asset#TYPES}, or any other name for all non-standard types together
+     * @return the count
+     */
+    int count(String type) {
+        return counts[bucket(type)];
+    }
+
+    /**
+     * Returns the total value of the assets of a type.
+     *
+     * @param type one of {@link Asset#TYPES}, or any other name for all non-standard types together
+     * @return the total
+     */
+    double totalValue(String type) {
+        return values[bucket(type)];
+    }
+
+    /**
+     * Encodes the summary as its stored line.
+     *
+     * @param baseSize    the size of the base file it describes
+     * @param journalSize the size of the journal it describes
+     * @return the line's bytes
+     */
+    byte[] encode(long baseSize, long journalSize) {
+        StringBuilder line = new StringBuilder(LENGTH).append(PREFIX);
+        hex(line, baseSize, 16);
+        hex(line, journalSize, 16);
+        hex(line, count, 8);
+        hex(line, Double.doubleToLongBits(total), 16);
+        hex(line, Double.doubleToLongBits(min), 16);
+        hex(line, Double.doubleToLongBits(max), 16);
+        for (int b = 0; b < BUCKETS; b++) {
+            hex(line, counts[b], 8);
+            hex(line, Double.doubleToLongBits(values[b]), 16);
+        }
+        return line.append('\n').toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns a line of the stored length that reserves the slot but holds no summary.
+     *
+     * @return the line's bytes
+     */
+    static byte[] placeholder() {
+        byte[] line = new byte[LENGTH];
+        Arrays.fill(line, (byte) '-');
+        byte[] prefix = PREFIX.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        line[LENGTH - 1] = '\n';
+        return line;
+    }
+
+    /**
+     * Checks whether a file has a summary slot at an offset, valid or not.
+     *
+     * @param channel the file
+     * @param offset  where the line should start
+     * @return true if the line is present
+     * @throws IOException if the file cannot be read
+     */
+    static boolean hasSlot(FileChannel channel, long offset) throws IOException {
+        return readLine(channel, offset) != null;
+    }
+
+    /**
+     * Reads a stored summary, provided the base file and journal still have the sizes it was
+     * written for.
+     *
+     * @param channel     the base file
+     * @param offset      where the line starts
+     * @param baseSize    the current size of the base file
+     * @param journalSize the current size of the journal, 0 if there is none
+     * @return the summary, or null if there is none or it is out of date
+     * @throws IOException if the file cannot be read
+     */
+    static PortfolioSummary read(FileChannel channel, long offset, long baseSize, long journalSize) throws IOException {
+        ByteBuffer line = readLine(channel, offset);
+        if (line == null) return null;
+        try {
+            int pos = PREFIX.length();
+            if (parseHex(line, pos, 16) != baseSize || parseHex(line, pos + 16, 16) != journalSize) return null;
+            pos += 32;
+            int count = (int) parseHex(line, pos, 8);
+            double total = Double.longBitsToDouble(parseHex(line, pos + 8, 16));
+            double min = Double.longBitsToDouble(parseHex(line, pos + 24, 16));
+            double max = Double.longBitsToDouble(parseHex(line, pos + 40, 16));
+            pos += 56;
+            int[] counts = new int[BUCKETS];
+            double[] values = new double[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++, pos += 24) {
+                counts[b] = (int) parseHex(line, pos, 8);
+                values[b] = Double.longBitsToDouble(parseHex(line, pos + 8, 16));
+            }
+            return new PortfolioSummary(count, total, min, max, counts, values);
+        } catch (NumberFormatException e) {
+            // A placeholder or a torn write
+            return null;
+        }
+    }
+
+    /**
+     * Overwrites a summary slot in place.
+     *
+     * @param channel the base file, open for writing
+     * @param offset  where the line starts
+     * @param line    the line from {@link #encode} or {@link #placeholder()}
+     * @throws IOException if the file cannot be written
+     */
+    static void write(FileChannel channel, long offset, byte[] line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, offset + bytes.position());
+        }
+    }
+
+    /**
+     * Reads the stored line at an offset.
+     *
+     * @param channel the file
+     * @param offset  where the line starts
+     * @return the line, or null if the file is too short or the line is not a summary slot
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer readLine(FileChannel channel, long offset) throws IOException {
+        ByteBuffer line = ByteBuffer.allocate(LENGTH);
+        while (line.hasRemaining() && channel.read(line, offset + line.position()) > 0) {
+            // keep reading until the line is complete or the file ends
+        }
+        if (line.hasRemaining() || line.get(LENGTH - 1) != '\n') return null;
+        for (int i = 0; i < PREFIX.length(); i++) {
+            if (line.get(i) != PREFIX.charAt(i)) return null;
+        }
+        return line;
+    }
+
+    /**
+     * Appends a number as fixed-width hexadecimal.
+     *
+     * @param line   the line being built
+     * @param value  the number
+     * @param digits the width
+     */
+    private static void hex(StringBuilder line, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            line.append(Character.forDigit((int) (value >>> shift) & 0xF, 16));
+        }
+    }
+
+    /**
+     * Parses fixed-width hexadecimal.
+     *
+     * @param line   the stored line
+     * @param start  the first digit
+     * @param digits the width
+     * @return the number
+     * @throws NumberFormatException if a character is not a hex digit
+     */
+    private static long parseHex(ByteBuffer line, int start, int digits) {
+        long value = 0;
+        for (int i = start; i < start + digits; i++) {
+            int digit = Character.digit(line.get(i), 16);
+            if (digit < 0) throw new NumberFormatException();
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Maps a type name to its bucket.
+     *
+     * @param type the type name
+     * @return the standard type's index, or the last bucket for any other type
+     */
+    private static int bucket(String type) {
+        for (int i = 0; i < Asset.TYPES.length; i++) {
+            if (Asset.TYPES[i].equals(type)) return i;
+        }
+        return BUCKETS - 1;
+    }
+}
@@ -16,6 +16,9 @@ public class SignUpPage extends JFrame {
     /** Field for confirming the password. */
     private JPasswordField confirmField;
 
+    /** Button that submits the registration. */
+    private JButton registerButton;
+
     /**
      * Constructs the SignUpPage window.
      * Initializes the UI components and sets up the layout and event handling.
@@ -35,7 +38,7 @@ public class SignUpPage extends JFrame {
         JLabel confirmLabel = new JLabel("Confirm Password:");
         confirmField = new JPasswordField(20);
 
-        JButton registerButton = new JButton("Register");
+        registerButton = new JButton("Register");
         JButton backButton = new JButton("Back to Login");
 
         customizeButton(registerButton);
@@ -122,12 +125,19 @@ public class SignUpPage extends JFrame {
             return;
         }
 
-        if (UserDatabase.addUser(user, pass)) {
-            JOptionPane.showMessageDialog(this, "Account created. You can now login.");
-            dispose();
-            new LoginPage();
-        } else {
-            JOptionPane.showMessageDialog(this, "Username already exists.");
-        }
+        // Hashing the new password is slow, so it runs off the event dispatch thread
+        registerButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        UserDatabase.addUserAsync(user, pass).whenComplete((added, error) -> SwingUtilities.invokeLater(() -> {
+            registerButton.setEnabled(true);
+            setCursor(Cursor.getDefaultCursor());
+            if (error == null && added) {
+                JOptionPane.showMessageDialog(this, "Account created. You can now login.");
+                dispose();
+                new LoginPage();
+            } else {
+                JOptionPane.showMessageDialog(this, "Username already exists.");
+            }
+        }));
     }
 }
@@ -1,15 +1,103 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A utility class that handles user data storage and validation.
- * User credentials are stored in a simple text file named "users.txt",
- * where each line follows the format: username:password
+ * User credentials are kept in a {@link UserStore}: an append log ("users.log")
+ * plus a memory-mapped hash index ("users.idx"), so a lookup costs the same
+ * no matter how many users are registered.
+ * <p>
+ * Older installations kept credentials in "users.txt", one username:password per line.
+ * That file is migrated into the store the first time the store is opened.
+ * <p>
+ * Passwords are stored as salted PBKDF2 hashes (see {@link PasswordHasher}). Entries that
+ * are still plaintext are rehashed on the user's next successful login. Because hashing is
+ * deliberately slow, the UI should use {@link #validateUserAsync} and {@link #addUserAsync},
+ * which run on a dedicated executor. A small cache of recently verified logins lets a user
+ * who logs out and back in skip the hash.
  */
 public class UserDatabase {
-    /** The file path where user credentials are stored. */
+    /** The legacy file path where user credentials used to be stored. */
     private static final String USER_FILE = "users.txt";
 
+    /** The append log holding credential records. */
+    private static final String USER_LOG = "users.log";
+
+    /** The hash index over the credential log. */
+    private static final String USER_INDEX = "users.idx";
+
+    /** How long a verified login may be reused without hashing again. */
+    private static final long SESSION_TTL_MILLIS = 15 * 60 * 1000;
+
+    /** Maximum number of verified logins kept in the cache. */
+    private static final int MAX_SESSIONS = 256;
+
+    /** The store, opened on first use. */
+    private static UserStore store;
+
+    /** Threads that run password hashing away from the Swing event thread. */
+    private static final ExecutorService verifier = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "password-verifier");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** Recently verified logins, least recently used first. */
+    private static final Map<String, VerifiedSession> sessions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VerifiedSession> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    /** Per-process key for session fingerprints, so the cache never holds anything reusable elsewhere. */
+    private static final byte[] sessionKey = randomKey();
+
+    /**
+     * A hash that unknown usernames are checked against, made on first use, so a failed login
+     * takes as long whether or not the name exists and does not reveal which names are taken.
+     */
+    private static final class DummyHash {
+        /** Hash of a random password nobody knows. */
+        static final String VALUE = PasswordHasher.hash(Base64.getEncoder().encodeToString(randomKey()));
+    }
+
+    /**
+     * A login that was verified recently.
+     */
+    private static final class VerifiedSession {
+        /** The stored hash the login was verified against; a password change invalidates the entry. */
+        final String stored;
+
+        /** Keyed fingerprint of the password that was accepted. */
+        final byte[] fingerprint;
+
+        /** Time after which the entry must not be used. */
+        final long expiresAt;
+
+        /**
+         * Creates a cache entry.
+         *
+         * @param stored      the stored hash
+         * @param fingerprint the password fingerprint
+         * @param expiresAt   the expiry time in epoch milliseconds
+         */
+        VerifiedSession(String stored, byte[] fingerprint, long expiresAt) {
+            this.stored = stored;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     /**
      * Adds a new user to the database if the username does not already exist.
      *
@@ -18,11 +106,10 @@ public class UserDatabase {
      * @return true if the user was successfully added; false if the user already exists or an I/O error occurred
      */
     public static boolean addUser(String username, String password) {
-        if (userExists(username)) return false;
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(USER_FILE, true))) {
-            writer.write(username + ":" + password);
-            writer.newLine();
-            return true;
+        try {
+            // Cheap early rejection; putIfAbsent stays the authoritative check
+            if (store().contains(username)) return false;
+            return store().putIfAbsent(username, PasswordHasher.hash(password));
         } catch (IOException e) {
             System.out.println("File doesn't exist");
             return false;
@@ -37,38 +124,114 @@ public class UserDatabase {
      * @return true if the credentials are valid; false otherwise or if an I/O error occurs
      */
     public static boolean validateUser(String username, String password) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USER_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":", 2);
-                if (parts.length == 2 && parts[0].equals(username) && parts[1].equals(password)) {
-                    return true;
-                }
+        try {
+            String stored = store().get(username);
+            if (stored == null) {
+                PasswordHasher.verify(password, DummyHash.VALUE);
+                return false;
             }
+
+            byte[] fingerprint = fingerprint(username, password);
+            if (recentlyVerified(username, stored, fingerprint)) return true;
+            if (!PasswordHasher.verify(password, stored)) return false;
+
+            if (PasswordHasher.needsRehash(stored)) {
+                stored = PasswordHasher.hash(password);
+                store().put(username, stored);
+            }
+            synchronized (sessions) {
+                sessions.put(username, new VerifiedSession(stored, fingerprint,
+                        System.currentTimeMillis() + SESSION_TTL_MILLIS));
+            }
+            return true;
         } catch (IOException e) {
             System.out.println("File doesn't exist");
+            return false;
         }
-        return false;
     }
 
     /**
-     * Checks if a user with the given username already exists in the database.
+     * Runs {@link #validateUser} on the password verifier threads.
      *
      * @param username The username to check
-     * @return true if the username exists; false otherwise or if an I/O error occurs
+     * @param password The password to verify
+     * @return a future completed with the validation result
+     */
+    public static CompletableFuture<Boolean> validateUserAsync(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> validateUser(username, password), verifier);
+    }
+
+    /**
+     * Runs {@link #addUser} on the password verifier threads.
+     *
+     * @param username The desired username
+     * @param password The password associated with the username
+     * @return a future completed with the registration result
      */
-    private static boolean userExists(String username) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USER_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":", 2);
-                if (parts.length > 0 && parts[0].equals(username)) {
-                    return true;
-                }
+    public static CompletableFuture<Boolean> addUserAsync(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> addUser(username, password), verifier);
+    }
+
+    /**
+     * Checks the verified-login cache for a matching, unexpired entry.
+     *
+     * @param username    the username
+     * @param stored      the currently stored hash
+     * @param fingerprint the fingerprint of the entered password
+     * @return true if the same password was verified against the same hash recently
+     */
+    private static boolean recentlyVerified(String username, String stored, byte[] fingerprint) {
+        synchronized (sessions) {
+            VerifiedSession session = sessions.get(username);
+            if (session == null) return false;
+            if (session.expiresAt < System.currentTimeMillis() || !session.stored.equals(stored)) {
+                sessions.remove(username);
+                return false;
             }
-        } catch (IOException e) {
-            System.out.println("File doesn't exist");
+            return MessageDigest.isEqual(session.fingerprint, fingerprint);
+        }
+    }
+
+    /**
+     * Generates the per-process fingerprint key.
+     *
+     * @return 32 random bytes
+     */
+    private static byte[] randomKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Computes a keyed fingerprint of a login attempt with HMAC-SHA256.
+     *
+     * @param username the username
+     * @param password the password
+     * @return the fingerprint
+     */
+    private static byte[] fingerprint(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(sessionKey, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the shared credential store, opening it (and migrating "users.txt") on first use.
+     *
+     * @return the store
+     * @throws IOException if the store files cannot be opened
+     */
+    static synchronized UserStore store() throws IOException {
+        if (store == null) {
+            store = new UserStore(Paths.get(USER_LOG), Paths.get(USER_INDEX), Paths.get(USER_FILE));
         }
-        return false;
+        return store;
     }
 }
@@ -0,0 +1,178 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Imports users in bulk from a text export, such as an HR system dump.
+ * Each line holds one user as "username:password" or "username,password".
+ * <p>
+ * The input is streamed once. Existing usernames are screened with a Bloom filter
+ * and only the possible matches are checked exactly against the store, so the cost
+ * is linear in the size of the input rather than quadratic.
+ * <p>
+ * Passwords are hashed with {@link PasswordHasher} before they are written. Hashing dominates
+ * the cost of an import, so accepted users are collected in chunks and each chunk is hashed
+ * in parallel with no lock held. Only then is the chunk written, through a buffered
+ * {@link UserStore.BulkWriter} that holds the store's locks just long enough to check the names
+ * again and append them, so logins and registrations keep running during an import. Records
+ * reach the store in input order.
+ * <p>
+ * Usage: {@code java UserImport <export-file>}
+ */
+public class UserImport {
+    /** False-positive rate of the duplicate screen. */
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /** Rough size of one export line, used to size the Bloom filter from the file length. */
+    private static final int ESTIMATED_LINE_BYTES = 16;
+
+    /** Number of accepted users hashed together in parallel. */
+    private static final int HASH_CHUNK = 4096;
+
+    /**
+     * Outcome of an import run.
+     */
+    static final class Result {
+        /** Lines read from the input. */
+        long read;
+
+        /** Users written to the store. */
+        long imported;
+
+        /** Users rejected because the name was already taken. */
+        long duplicates;
+
+        /** Lines that were not a username/password pair. */
+        long invalid;
+
+        /** Wall-clock duration of the import in nanoseconds. */
+        long elapsedNanos;
+
+        /**
+         * Returns a one-line summary including throughput.
+         *
+         * @return the summary
+         */
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("Read %,d lines: imported %,d users, rejected %,d duplicates, skipped %,d invalid lines "
+                            + "in %.2f s (%,.0f lines/s)",
+                    read, imported, duplicates, invalid, seconds, seconds > 0 ? read / seconds : (double) read);
+        }
+    }
+
+    /**
+     * Imports every user in the given file that does not already exist.
+     *
+     * @param input the export file
+     * @return counts and timing for the run
+     * @throws IOException if the input cannot be read or the store written
+     */
+    public static Result importFile(Path input) throws IOException {
+        Result result = new Result();
+        long start = System.nanoTime();
+        UserStore store = UserDatabase.store();
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            long expected = store.size() + Files.size(input) / ESTIMATED_LINE_BYTES + 1;
+            BloomFilter seen = new BloomFilter(expected, FALSE_POSITIVE_RATE);
+            store.forEachKey(seen::add);
+
+            List<String> names = new ArrayList<>(HASH_CHUNK);
+            List<String> passwords = new ArrayList<>(HASH_CHUNK);
+            Set<String> chunkNames = new HashSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.read++;
+                int sep = separatorIndex(line);
+                if (sep <= 0 || sep == line.length() - 1) {
+                    result.invalid++;
+                    continue;
+                }
+                String username = line.substring(0, sep).trim();
+                String password = line.substring(sep + 1);
+                if (username.isEmpty()) {
+                    result.invalid++;
+                    continue;
+                }
+
+                if (seen.mightContain(username) && (chunkNames.contains(username) || store.contains(username))) {
+                    result.duplicates++;
+                    continue;
+                }
+                seen.add(username);
+                chunkNames.add(username);
+                names.add(username);
+                passwords.add(password);
+                if (names.size() == HASH_CHUNK) {
+                    writeChunk(store, names, passwords, result);
+                    chunkNames.clear();
+                }
+            }
+            writeChunk(store, names, passwords, result);
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Hashes a chunk of passwords in parallel, then writes the users in order through a bulk
+     * writer that is open only while they are appended. A name registered since it was screened
+     * is counted as a duplicate.
+     *
+     * @param store     the user store
+     * @param names     the usernames; cleared afterwards
+     * @param passwords the matching plaintext passwords; cleared afterwards
+     * @param result    the run's counters
+     * @throws IOException if the store cannot be written
+     */
+    private static void writeChunk(UserStore store, List<String> names, List<String> passwords, Result result)
+            throws IOException {
+        if (names.isEmpty()) return;
+        String[] hashes = passwords.parallelStream().map(PasswordHasher::hash).toArray(String[]::new);
+        try (UserStore.BulkWriter writer = store.bulkWriter()) {
+            for (int i = 0; i < hashes.length; i++) {
+                if (writer.contains(names.get(i))) {
+                    result.duplicates++;
+                    continue;
+                }
+                writer.add(names.get(i), hashes[i]);
+            }
+            result.imported += writer.added();
+        }
+        names.clear();
+        passwords.clear();
+    }
+
+    /**
+     * Finds the separator between username and password: the first ':' or, failing that, the first ','.
+     *
+     * @param line the input line
+     * @return the separator index, or -1 if there is none
+     */
+    private static int separatorIndex(String line) {
+        int sep = line.indexOf(':');
+        return sep >= 0 ? sep : line.indexOf(',');
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the path of the export file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java UserImport <export-file>");
+            System.exit(2);
+        }
+        try {
+            System.out.println(importFile(Paths.get(args[0])));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import javax.swing.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds everything loaded for the logged-in user: the asset portfolio, the linked bank
+ * account and totals derived from them. A session is created at login and handed from
+ * screen to screen, so moving between the dashboard and the other windows costs no I/O
+ * once the data has been read the first time.
+ * <p>
+ * The session watches the user's files through {@link DataWatcher}. When another process
+ * changes them, cached data is brought up to date and change listeners are called on the
+ * event dispatch thread, so open windows can redraw.
+ */
+public class UserSession {
+    /** The logged-in user's username. */
+    private final String username;
+
+    /** The user's portfolio once loaded, or null until then. */
+    private AssetRepository portfolio;
+
+    /**
+     * The repository this session holds through {@link AssetRepository#hold(String)}, so that
+     * it keeps watching its files while any screen uses it; released at logout.
+     */
+    private AssetRepository held;
+
+    /** Called once the portfolio is loaded; empty unless a background load is wanted. */
+    private final List<Runnable> portfolioWaiters = new ArrayList<>();
+
+    /** The latest background load started by {@link #loadPortfolio}, or null. */
+    private SwingWorker<?, ?> backgroundLoad;
+
+    /** Whether the bank account has been read from disk yet. */
+    private boolean bankLoaded;
+
+    /** Name of the connected bank, or null if no account is connected. */
+    private String bankName;
+
+    /** Last four digits of the connected card, or null if no account is connected. */
+    private String cardLastFour;
+
+    /** Called on the event dispatch thread after the user's data changed on disk. */
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    /** Registered with {@link DataWatcher} for the bank data file. */
+    private final Runnable bankWatch = () -> SwingUtilities.invokeLater(this::bankFileChanged);
+
+    /** Registered with {@link DataWatcher} for the asset files while the portfolio is not loaded. */
+    private final Runnable assetWatch = () -> SwingUtilities.invokeLater(this::fireChanged);
+
+    /** Registered with the portfolio once it is loaded; it watches its own files. */
+    private final Runnable portfolioListener = () -> SwingUtilities.invokeLater(this::fireChanged);
+
+    /**
+     * Creates a session for a user who has just logged in. Nothing is read until a screen asks for it.
+     *
+     * @param username the logged-in user's username
+     */
+    public UserSession(String username) {
+        this.username = username;
+        DataWatcher.watch(Bank.BANK_DATA_FILE, bankWatch);
+        for (String fileName : assetFiles()) {
+            DataWatcher.watch(fileName, assetWatch);
+        }
+    }
+
+    /**
+     * Returns the logged-in user's username.
+     *
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the user's portfolio without reading it. Windows use this together with
+     * {@link PortfolioLoader} so they can open before a large portfolio has been read.
+     *
+     * @return the repository, which may not be loaded yet
+     */
+    public AssetRepository openPortfolio() {
+        if (portfolio != null) return portfolio;
+        // The same instance unless a cancelled load dropped it; either way one hold is kept
+        AssetRepository repository = AssetRepository.hold(username);
+        if (held != null) {
+            held.release();
+        }
+        held = repository;
+        return repository;
+    }
+
+    /**
+     * Loads the portfolio on a background thread for a window that only needs its totals, then
+     * calls back on the event dispatch thread. Runs the callback straight away if it is loaded.
+     *
+     * @param onLoaded called once the portfolio is loaded
+     */
+    public void loadPortfolio(Runnable onLoaded) {
+        if (portfolio != null) {
+            onLoaded.run();
+            return;
+        }
+        portfolioWaiters.add(onLoaded);
+        if (backgroundLoad == null || backgroundLoad.isDone()) {
+            backgroundLoad = PortfolioLoader.loadInBackground(this, openPortfolio());
+        }
+    }
+
+    /**
+     * Starts the background load again if a window cancelled the one it was waiting on and
+     * anyone is still waiting in {@link #loadPortfolio}.
+     */
+    void portfolioLoadCancelled() {
+        if (portfolio == null && !portfolioWaiters.isEmpty()) {
+            backgroundLoad = PortfolioLoader.loadInBackground(this, openPortfolio());
+        }
+    }
+
+    /**
+     * Keeps a portfolio that has finished loading, so later screens get it straight away, and
+     * calls anyone waiting in {@link #loadPortfolio}.
+     *
+     * @param repository the loaded repository
+     */
+    void portfolioLoaded(AssetRepository repository) {
+        if (portfolio == null) {
+            portfolio = repository;
+            portfolio.addChangeListener(portfolioListener);
+            for (String fileName : assetFiles()) {
+                DataWatcher.unwatch(fileName, assetWatch);
+            }
+        }
+        List<Runnable> waiting = new ArrayList<>(portfolioWaiters);
+        portfolioWaiters.clear();
+        for (Runnable onLoaded : waiting) {
+            onLoaded.run();
+        }
+    }
+
+    /**
+     * Adds a listener called on the event dispatch thread whenever the user's assets or bank
+     * account are changed on disk by something other than this session.
+     *
+     * @param listener the listener
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Removes a change listener.
+     *
+     * @param listener the listener
+     */
+    public void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Stops watching the user's files. Called at logout.
+     */
+    public void close() {
+        DataWatcher.unwatch(Bank.BANK_DATA_FILE, bankWatch);
+        for (String fileName : assetFiles()) {
+            DataWatcher.unwatch(fileName, assetWatch);
+        }
+        if (portfolio != null) {
+            portfolio.removeChangeListener(portfolioListener);
+        }
+        if (held != null) {
+            held.release();
+            held = null;
+        }
+        changeListeners.clear();
+        portfolioWaiters.clear();
+    }
+
+    /**
+     * Returns the totals over the user's assets without loading the portfolio. Before it has
+     * been loaded they are read from the summary stored with it, so the dashboard can show them
+     * without a full load.
+     *
+     * @return the portfolio summary, or null if the portfolio is not loaded and no up-to-date
+     *         summary is stored; {@link #loadPortfolio} then brings it in
+     */
+    public PortfolioSummary getPortfolioSummary() {
+        if (portfolio != null) return portfolio.summary();
+        return AssetRepository.peekSummary(username);
+    }
+
+    /**
+     * Checks whether a bank account is linked.
+     *
+     * @return true if an account is connected
+     */
+    public boolean isBankConnected() {
+        loadBankAccount();
+        return bankName != null;
+    }
+
+    /**
+     * Returns the name of the connected bank.
+     *
+     * @return the bank name, or null if none is connected
+     */
+    public String getBankName() {
+        loadBankAccount();
+        return bankName;
+    }
+
+    /**
+     * Returns the last four digits of the connected card.
+     *
+     * @return the digits, or null if no account is connected
+     */
+    public String getCardLastFour() {
+        loadBankAccount();
+        return cardLastFour;
+    }
+
+    /**
+     * Updates the cached bank link when the Bank screen saves it.
+     *
+     * @param bankName     the connected bank, or null to disconnect
+     * @param cardLastFour the last four card digits, or null to disconnect
+     */
+    public void setBankAccount(String bankName, String cardLastFour) {
+        this.bankName = bankName;
+        this.cardLastFour = cardLastFour;
+        bankLoaded = true;
+    }
+
+    /**
+     * Forgets the cached bank link after the bank data file changed, then tells listeners.
+     * While this session's own write of the link is still queued or running the change is
+     * ignored: it is an earlier state of the file, and the cache already holds what the write
+     * will store. The write's own change comes in once it has finished.
+     */
+    private void bankFileChanged() {
+        if (PersistenceQueue.isPending(Bank.writeKey(username))) return;
+        bankLoaded = false;
+        bankName = null;
+        cardLastFour = null;
+        fireChanged();
+    }
+
+    /**
+     * Calls every change listener.
+     */
+    private void fireChanged() {
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns the names of the files that can hold this user's assets.
+     *
+     * @return the file names
+     */
+    private String[] assetFiles() {
+        return new String[]{"assets_" + username + ".txt", "assets_" + username + ".col", "assets_" + username + ".journal"};
+    }
+
+    /**
+     * Reads this user's bank link from the bank data file the first time it is needed.
+     */
+    private void loadBankAccount() {
+        if (bankLoaded) return;
+        bankLoaded = true;
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(Bank.BANK_DATA_FILE))) {
+            @SuppressWarnings("unchecked")
+            Map<String, String[]> savedAccounts = (Map<String, String[]>) ois.readObject();
+            String[] accountData = savedAccounts.get(username);
+            if (accountData != null) {
+                bankName = accountData[0];
+                cardLastFour = accountData[1];
+            }
+        } catch (FileNotFoundException e) {
+            // No saved accounts yet
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+}
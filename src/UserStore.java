@@ -0,0 +1,1078 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A log-structured key/value store used to hold user credentials.
+ * <p>
+ * Records are appended to a log file and located through an open-addressing
+ * hash index that lives in a separate, memory-mapped file. A lookup probes the
+ * index (one page) and then reads the record from the log (one positional read),
+ * so its cost does not depend on how many users are stored.
+ * <p>
+ * Overwriting a key leaves the old record behind as dead bytes. Once dead bytes
+ * outweigh live ones, a background thread copies the live records into a fresh
+ * log and swaps it in.
+ * <p>
+ * Writes are race-free both inside and across processes. Writes to the same key are
+ * serialised by an in-process lock stripe, and every commit holds an exclusive
+ * {@link FileLock} on the index file while it re-checks the key and appends. Writers
+ * do not touch the disk themselves: they hand their record to a single committer thread,
+ * which folds everything queued into one write and one force on a long-lived channel.
+ * <p>
+ * Log layout: a 16 byte header (magic, generation) followed by records of the form
+ * {@code [u16 keyLength][u16 valueLength][key bytes][value bytes]}, UTF-8 encoded.
+ * Index layout: a 64 byte header followed by 16 byte slots of {@code [key hash][log offset]}.
+ */
+class UserStore implements Closeable {
+    /** Magic number written at the start of the log ("USRLOG01"). */
+    private static final long LOG_MAGIC = 0x5553524c4f473031L;
+
+    /** Size of the log header in bytes. */
+    private static final int LOG_HEADER = 16;
+
+    /** Magic number written at the start of the index ("UIDX"). */
+    private static final int INDEX_MAGIC = 0x55494458;
+
+    /** Size of the index header in bytes. */
+    private static final int INDEX_HEADER = 64;
+
+    /** Size of a single index slot in bytes. */
+    private static final int SLOT = 16;
+
+    /** Header field offsets inside the index file. */
+    private static final int H_MAGIC = 0, H_CAPACITY = 4, H_SIZE = 8, H_LOG_LENGTH = 16, H_DEAD = 24, H_GENERATION = 32;
+
+    /** Number of slots in a newly created index. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Largest number of slots the index may grow to (1 GiB of slots). */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /** Dead bytes below which compaction is never worth scheduling. */
+    private static final long COMPACT_MIN_DEAD = 64 * 1024;
+
+    /** Bytes read per positional read; covers almost every credential record in one go. */
+    private static final int READ_AHEAD = 256;
+
+    /** Number of in-process lock stripes used to serialise writes to the same key. */
+    private static final int STRIPES = 64;
+
+    /** Largest number of records folded into one group commit. */
+    private static final int MAX_BATCH = 1024;
+
+    /** Position of the byte range locked for cross-process exclusion, well past any index data. */
+    private static final long LOCK_POSITION = 1L << 62;
+
+    /** Size of the staging buffer used by {@link BulkWriter}. */
+    private static final int BULK_BUFFER = 1 << 20;
+
+    /** Queue marker that tells the committer thread to stop. */
+    private static final PendingWrite STOP = new PendingWrite(new byte[0], new byte[0], 0, false);
+
+    private final Path logPath;
+    private final Path indexPath;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "user-store-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private FileChannel log;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private long logEnd;
+    private long logGeneration;
+    private boolean compactionPending;
+    private volatile boolean closed;
+
+    /**
+     * Opens (or creates) a store backed by the given log and index files.
+     * If the log does not exist yet and a legacy "username:password" text file is present,
+     * its contents are migrated into the new log once and the legacy file is renamed
+     * with a ".migrated" suffix.
+     *
+     * @param logPath    the append log
+     * @param indexPath  the memory-mapped hash index
+     * @param legacyPath the legacy text file to migrate from, or null
+     * @throws IOException if the files cannot be opened or read
+     */
+    UserStore(Path logPath, Path indexPath, Path legacyPath) throws IOException {
+        this.logPath = logPath;
+        this.indexPath = indexPath;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+
+        log = FileChannel.open(logPath, READ, WRITE, CREATE);
+        indexChannel = FileChannel.open(indexPath, READ, WRITE, CREATE);
+        FileLock fileLock = lockFile();
+        try {
+            boolean fresh = log.size() < LOG_HEADER;
+            if (fresh) {
+                log.truncate(0);
+                writeLogHeader(log, 0);
+            }
+            logEnd = log.size();
+            openIndex(readLogGeneration(log));
+
+            if (fresh && legacyPath != null && Files.exists(legacyPath)) {
+                migrate(legacyPath);
+            }
+        } finally {
+            fileLock.release();
+        }
+
+        committer = new Thread(this::commitLoop, "user-store-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Returns the value stored for a key.
+     *
+     * @param key the key to look up
+     * @return the stored value, or null if the key is unknown
+     * @throws IOException if the log cannot be read
+     */
+    String get(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ensureCurrent();
+        lock.readLock().lock();
+        try {
+            int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) return null;
+            ByteBuffer record = readRecord(index.getLong(slotPos(slot) + 8));
+            int keyLength = record.getShort(0) & 0xFFFF;
+            int valueLength = record.getShort(2) & 0xFFFF;
+            return new String(record.array(), 4 + keyLength, valueLength, StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a key is present.
+     *
+     * @param key the key to look up
+     * @return true if the key has a record
+     * @throws IOException if the log cannot be read
+     */
+    boolean contains(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ensureCurrent();
+        lock.readLock().lock();
+        try {
+            return find(keyBytes, hash(keyBytes)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a value only if the key has no record yet. The check and the write are atomic,
+     * even against other processes sharing the same files.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the record was written; false if the key already existed
+     * @throws IOException if the log cannot be written
+     */
+    boolean putIfAbsent(String key, String value) throws IOException {
+        return write(new PendingWrite(encodeField(key), encodeField(value), 0, true));
+    }
+
+    /**
+     * Stores a value, replacing any previous record for the key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @throws IOException if the log cannot be written
+     */
+    void put(String key, String value) throws IOException {
+        write(new PendingWrite(encodeField(key), encodeField(value), 0, false));
+    }
+
+    /**
+     * Calls the consumer once for every live key in the store.
+     *
+     * @param consumer receives each key
+     * @throws IOException if the log cannot be read
+     */
+    void forEachKey(Consumer<String> consumer) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < capacity; i++) {
+                int pos = slotPos(i);
+                if (index.getLong(pos) == 0) continue;
+                ByteBuffer record = readRecord(index.getLong(pos + 8));
+                int keyLength = record.getShort(0) & 0xFFFF;
+                consumer.accept(new String(record.array(), 4, keyLength, StandardCharsets.UTF_8));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Opens a writer for loading many records in one sequential, buffered pass.
+     * The writer holds the store's write lock and the cross-process file lock until it is
+     * closed, so its existence checks and appends cannot interleave with any other write.
+     * Every other writer waits meanwhile, so prepare the records first and keep it open only
+     * while they are added.
+     *
+     * @return a writer that must be closed to publish its records
+     * @throws IOException if the store is closed or the lock cannot be taken
+     */
+    BulkWriter bulkWriter() throws IOException {
+        if (closed) throw new IOException("User store is closed");
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = lockFile();
+            try {
+                syncWithDisk();
+                return new BulkWriter(fileLock);
+            } catch (IOException | RuntimeException e) {
+                fileLock.release();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of live keys.
+     *
+     * @return the key count
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return index.getInt(H_SIZE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log so it only contains live records.
+     * The live offsets are snapshotted under the read lock and the records are copied with no
+     * lock held, through a channel of their own, since nothing below the snapshot ever changes.
+     * Writers are blocked only for the final swap, which also carries over anything appended
+     * in the meantime.
+     *
+     * @throws IOException if the new log cannot be written
+     */
+    void compact() throws IOException {
+        Path tmp = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        FileChannel out = FileChannel.open(tmp, READ, WRITE, CREATE, TRUNCATE_EXISTING);
+        try {
+            long snapshot;
+            long deadAtSnapshot;
+            long generation;
+            long[] oldOffsets;
+            FileChannel source;
+
+            // Phase 1: note every record that is live right now
+            lock.readLock().lock();
+            try {
+                snapshot = logEnd;
+                deadAtSnapshot = index.getLong(H_DEAD);
+                generation = index.getLong(H_GENERATION) + 1;
+
+                int live = index.getInt(H_SIZE);
+                oldOffsets = new long[live];
+                int n = 0;
+                for (int i = 0; i < capacity; i++) {
+                    int pos = slotPos(i);
+                    if (index.getLong(pos) != 0) oldOffsets[n++] = index.getLong(pos + 8);
+                }
+                source = FileChannel.open(logPath, READ);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // Phase 2: copy them without holding any lock
+            long[] newOffsets = new long[oldOffsets.length];
+            try (FileChannel in = source) {
+                if (readLogGeneration(in) != generation - 1) return; // another process compacted first
+                writeLogHeader(out, generation);
+                Arrays.sort(oldOffsets);
+                long written = LOG_HEADER;
+                for (int i = 0; i < oldOffsets.length; i++) {
+                    ByteBuffer record = readRecord(in, oldOffsets[i], snapshot);
+                    newOffsets[i] = written;
+                    written += writeFully(out, record, written);
+                }
+            }
+
+            // Phase 3: carry over the tail, swap the files and repoint the index
+            lock.writeLock().lock();
+            try {
+                FileLock fileLock = lockFile();
+                try {
+                    syncWithDisk();
+                    if (logGeneration != generation - 1) return; // another process compacted first
+                    long tailStart = out.size();
+                    long tailLength = logEnd - snapshot;
+                    for (long copied = 0; copied < tailLength; ) {
+                        out.position(tailStart + copied);
+                        copied += log.transferTo(snapshot + copied, tailLength - copied, out);
+                    }
+                    out.force(true);
+                    out.close();
+                    log.close();
+                    Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    log = FileChannel.open(logPath, READ, WRITE);
+                    logEnd = log.size();
+
+                    for (int i = 0; i < capacity; i++) {
+                        int pos = slotPos(i);
+                        if (index.getLong(pos) == 0) continue;
+                        long offset = index.getLong(pos + 8);
+                        long moved = offset >= snapshot
+                                ? offset - snapshot + tailStart
+                                : newOffsets[Arrays.binarySearch(oldOffsets, offset)];
+                        index.putLong(pos + 8, moved);
+                    }
+                    index.putLong(H_DEAD, index.getLong(H_DEAD) - deadAtSnapshot);
+                    index.putLong(H_LOG_LENGTH, logEnd);
+                    index.putLong(H_GENERATION, generation);
+                    logGeneration = generation;
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            out.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Flushes both files and releases them.
+     *
+     * @throws IOException if the files cannot be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        pending.add(STOP);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compactor.shutdown();
+        lock.writeLock().lock();
+        try {
+            index.force();
+            log.force(true);
+            log.close();
+            indexChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Maps the index file, rebuilding it from the log if it is missing, stale or belongs
+     * to a different log generation, and replays any records appended after it was last updated.
+     *
+     * @param generation the generation stamped in the log header
+     * @throws IOException if the files cannot be read
+     */
+    private void openIndex(long generation) throws IOException {
+        boolean valid = false;
+        if (indexChannel.size() >= INDEX_HEADER) {
+            MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER);
+            int storedCapacity = header.getInt(H_CAPACITY);
+            valid = header.getInt(H_MAGIC) == INDEX_MAGIC
+                    && header.getLong(H_GENERATION) == generation
+                    && header.getLong(H_LOG_LENGTH) <= logEnd
+                    && Integer.bitCount(storedCapacity) == 1
+                    && indexChannel.size() >= INDEX_HEADER + (long) storedCapacity * SLOT;
+            if (valid) capacity = storedCapacity;
+        }
+
+        if (!valid) {
+            // Cleared rather than truncated: another process may still have the file mapped
+            capacity = INITIAL_CAPACITY;
+            mapIndex();
+            for (int pos = 0; pos < slotPos(capacity); pos += 8) {
+                index.putLong(pos, 0);
+            }
+            index.putInt(H_MAGIC, INDEX_MAGIC);
+            index.putInt(H_CAPACITY, capacity);
+            index.putLong(H_LOG_LENGTH, LOG_HEADER);
+            index.putLong(H_GENERATION, generation);
+        } else {
+            mapIndex();
+        }
+        logGeneration = generation;
+        replay(index.getLong(H_LOG_LENGTH));
+    }
+
+    /**
+     * Catches up with changes another process made to the shared files: a compaction
+     * (new log generation), a grown index, or records appended after our last look.
+     * Must be called holding the write lock and the file lock.
+     *
+     * @throws IOException if the files cannot be read
+     */
+    private void syncWithDisk() throws IOException {
+        if (index.getInt(H_MAGIC) != INDEX_MAGIC || index.getLong(H_GENERATION) != logGeneration) {
+            log.close();
+            log = FileChannel.open(logPath, READ, WRITE, CREATE);
+            logEnd = log.size();
+            openIndex(readLogGeneration(log));
+            return;
+        }
+        if (index.getInt(H_CAPACITY) != capacity) {
+            capacity = index.getInt(H_CAPACITY);
+            mapIndex();
+        }
+        logEnd = log.size();
+        replay(index.getLong(H_LOG_LENGTH));
+    }
+
+    /**
+     * Syncs with the shared files if the index header shows another process has changed them.
+     * The header check is cheap, so lookups only pay for a file lock when something moved.
+     *
+     * @throws IOException if the files cannot be read
+     */
+    private void ensureCurrent() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (index.getLong(H_GENERATION) == logGeneration
+                    && index.getInt(H_CAPACITY) == capacity
+                    && index.getLong(H_LOG_LENGTH) == logEnd) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = lockFile();
+            try {
+                syncWithDisk();
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the cross-process lock. The index file is locked rather than the log because the
+     * log is replaced on compaction; a fixed byte range far past the data is used so that
+     * platforms with mandatory locking do not block reads of the mapped region.
+     *
+     * @return the held lock
+     * @throws IOException if the lock cannot be taken
+     */
+    private FileLock lockFile() throws IOException {
+        return indexChannel.lock(LOCK_POSITION, 1, false);
+    }
+
+    /**
+     * Queues a record for the committer thread and waits for its outcome.
+     * Holding the key's stripe while waiting keeps two writes to one key out of the same batch.
+     *
+     * @param write the record to store
+     * @return true if the record was written
+     * @throws IOException if the store is closed or the commit failed
+     */
+    private boolean write(PendingWrite write) throws IOException {
+        if (closed) throw new IOException("User store is closed");
+        ReentrantLock stripe = stripes[(int) (write.hash & (STRIPES - 1))];
+        stripe.lock();
+        try {
+            pending.add(write);
+            return write.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Body of the committer thread: takes whatever is queued, up to {@link #MAX_BATCH}
+     * records, and commits it as one group until {@link #STOP} arrives.
+     */
+    private void commitLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            running = !batch.remove(STOP);
+            if (batch.isEmpty()) continue;
+            try {
+                commit(batch);
+            } catch (IOException | RuntimeException e) {
+                for (PendingWrite write : batch) {
+                    write.done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a group of records with a single write and a single force, then indexes them.
+     * Conditional records whose key already exists are rejected here, under the file lock,
+     * so a registration from another process cannot slip in between the check and the write.
+     *
+     * @param batch the records to commit
+     * @throws IOException if the log cannot be written
+     */
+    private void commit(List<PendingWrite> batch) throws IOException {
+        boolean[] accepted = new boolean[batch.size()];
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = lockFile();
+            try {
+                syncWithDisk();
+
+                int total = 0;
+                for (PendingWrite write : batch) {
+                    total += 4 + write.keyBytes.length + write.valueBytes.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(total);
+                long[] offsets = new long[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingWrite write = batch.get(i);
+                    if (write.onlyIfAbsent && find(write.keyBytes, write.hash) >= 0) continue;
+                    accepted[i] = true;
+                    offsets[i] = logEnd + buffer.position();
+                    buffer.putShort((short) write.keyBytes.length).putShort((short) write.valueBytes.length)
+                            .put(write.keyBytes).put(write.valueBytes);
+                }
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    logEnd += writeFully(log, buffer, logEnd);
+                    log.force(false);
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!accepted[i]) continue;
+                    PendingWrite write = batch.get(i);
+                    upsert(write.keyBytes, write.hash, offsets[i]);
+                }
+                index.putLong(H_LOG_LENGTH, logEnd);
+                maybeScheduleCompaction();
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).done.complete(accepted[i]);
+        }
+    }
+
+    /**
+     * Maps {@link #capacity} slots plus the header, growing the file if needed.
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    private void mapIndex() throws IOException {
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * SLOT);
+    }
+
+    /**
+     * Indexes every complete record from the given log offset to the end of the log.
+     * A torn record at the very end (from an interrupted write) is cut off.
+     *
+     * @param from the first log offset not yet reflected in the index
+     * @throws IOException if the log cannot be read
+     */
+    private void replay(long from) throws IOException {
+        long offset = from;
+        log.position(from);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log), 64 * 1024));
+        while (offset + 4 <= logEnd) {
+            int keyLength = in.readUnsignedShort();
+            int valueLength = in.readUnsignedShort();
+            int length = 4 + keyLength + valueLength;
+            if (offset + length > logEnd) break;
+            byte[] keyBytes = new byte[keyLength];
+            in.readFully(keyBytes);
+            in.skipNBytes(valueLength);
+            upsert(keyBytes, hash(keyBytes), offset);
+            offset += length;
+        }
+        if (offset < logEnd) {
+            log.truncate(offset);
+            logEnd = offset;
+        }
+        index.putLong(H_LOG_LENGTH, logEnd);
+    }
+
+    /**
+     * Imports a legacy "username:password" file. The first record for a name wins.
+     *
+     * @param legacyPath the file to import
+     * @throws IOException if the file cannot be read or the log written
+     */
+    private void migrate(Path legacyPath) throws IOException {
+        lock.writeLock().lock();
+        try (BufferedReader reader = Files.newBufferedReader(legacyPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int sep = line.indexOf(':');
+                if (sep <= 0) continue;
+                byte[] keyBytes = encodeField(line.substring(0, sep));
+                long hash = hash(keyBytes);
+                int slot = find(keyBytes, hash);
+                if (slot >= 0) continue;
+                long offset = append(keyBytes, encodeField(line.substring(sep + 1)));
+                insert(-slot - 1, hash, offset);
+            }
+            index.putLong(H_LOG_LENGTH, logEnd);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.force(true);
+        Files.move(legacyPath, legacyPath.resolveSibling(legacyPath.getFileName() + ".migrated"),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Probes the index for a key.
+     *
+     * @param keyBytes the encoded key
+     * @param hash     the key's hash
+     * @return the slot holding the key, or {@code -(emptySlot + 1)} if it is absent
+     * @throws IOException if a candidate record cannot be read
+     */
+    private int find(byte[] keyBytes, long hash) throws IOException {
+        int mask = capacity - 1;
+        for (int i = (int) (hash ^ (hash >>> 32)) & mask; ; i = (i + 1) & mask) {
+            int pos = slotPos(i);
+            long stored = index.getLong(pos);
+            if (stored == 0) return -(i + 1);
+            if (stored == hash && keyMatches(index.getLong(pos + 8), keyBytes)) return i;
+        }
+    }
+
+    /**
+     * Points the key at a new record, inserting it if needed and counting the old record as dead.
+     *
+     * @param keyBytes the encoded key
+     * @param hash     the key's hash
+     * @param offset   the log offset of the new record
+     * @throws IOException if the previous record cannot be read
+     */
+    private void upsert(byte[] keyBytes, long hash, long offset) throws IOException {
+        int slot = find(keyBytes, hash);
+        if (slot < 0) {
+            insert(-slot - 1, hash, offset);
+            return;
+        }
+        int pos = slotPos(slot);
+        ByteBuffer header = readAt(index.getLong(pos + 8), 4);
+        long deadLength = 4 + (header.getShort(0) & 0xFFFF) + (header.getShort(2) & 0xFFFF);
+        index.putLong(H_DEAD, index.getLong(H_DEAD) + deadLength);
+        index.putLong(pos + 8, offset);
+    }
+
+    /**
+     * Fills an empty slot and grows the table once it is more than half full.
+     *
+     * @param slot   an empty slot returned by {@link #find}
+     * @param hash   the key's hash
+     * @param offset the log offset of the record
+     * @throws IOException if the index cannot be grown
+     */
+    private void insert(int slot, long hash, long offset) throws IOException {
+        int pos = slotPos(slot);
+        index.putLong(pos, hash);
+        index.putLong(pos + 8, offset);
+        int size = index.getInt(H_SIZE) + 1;
+        index.putInt(H_SIZE, size);
+        if (size * 2 > capacity && capacity < MAX_CAPACITY) grow();
+    }
+
+    /**
+     * Doubles the number of slots in place and rehashes every entry.
+     * The file is never replaced, so this also works on platforms that refuse to
+     * delete or rename a mapped file.
+     *
+     * @throws IOException if the index cannot be remapped
+     */
+    private void grow() throws IOException {
+        int size = index.getInt(H_SIZE);
+        long[] hashes = new long[size];
+        long[] offsets = new long[size];
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            int pos = slotPos(i);
+            long h = index.getLong(pos);
+            if (h == 0) continue;
+            hashes[n] = h;
+            offsets[n++] = index.getLong(pos + 8);
+        }
+
+        capacity *= 2;
+        mapIndex();
+        for (int i = 0; i < capacity; i++) {
+            index.putLong(slotPos(i), 0);
+        }
+        int mask = capacity - 1;
+        for (int k = 0; k < n; k++) {
+            int i = (int) (hashes[k] ^ (hashes[k] >>> 32)) & mask;
+            while (index.getLong(slotPos(i)) != 0) i = (i + 1) & mask;
+            index.putLong(slotPos(i), hashes[k]);
+            index.putLong(slotPos(i) + 8, offsets[k]);
+        }
+        index.putInt(H_CAPACITY, capacity);
+    }
+
+    /**
+     * Queues a background compaction once dead records take up more space than live ones.
+     */
+    private void maybeScheduleCompaction() {
+        long dead = index.getLong(H_DEAD);
+        long live = logEnd - LOG_HEADER - dead;
+        if (compactionPending || dead < COMPACT_MIN_DEAD || dead < live) return;
+        compactionPending = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                lock.writeLock().lock();
+                compactionPending = false;
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Appends a record to the end of the log.
+     *
+     * @param keyBytes   the encoded key
+     * @param valueBytes the encoded value
+     * @return the offset the record was written at
+     * @throws IOException if the log cannot be written
+     */
+    private long append(byte[] keyBytes, byte[] valueBytes) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(4 + keyBytes.length + valueBytes.length);
+        record.putShort((short) keyBytes.length).putShort((short) valueBytes.length).put(keyBytes).put(valueBytes).flip();
+        long offset = logEnd;
+        logEnd += writeFully(log, record, offset);
+        return offset;
+    }
+
+    /**
+     * Reads a whole record, using a single read whenever the record fits in {@link #READ_AHEAD} bytes.
+     *
+     * @param offset the record's log offset
+     * @return a heap buffer holding exactly the record
+     * @throws IOException if the log cannot be read
+     */
+    private ByteBuffer readRecord(long offset) throws IOException {
+        return readRecord(log, offset, logEnd);
+    }
+
+    /**
+     * Reads a whole record from a given log channel.
+     *
+     * @param channel the log to read
+     * @param offset  the record's log offset
+     * @param end     the end of the log as far as the caller knows
+     * @return a heap buffer holding exactly the record
+     * @throws IOException if the log cannot be read
+     */
+    private static ByteBuffer readRecord(FileChannel channel, long offset, long end) throws IOException {
+        ByteBuffer head = readAt(channel, offset, (int) Math.min(READ_AHEAD, end - offset));
+        int length = 4 + (head.getShort(0) & 0xFFFF) + (head.getShort(2) & 0xFFFF);
+        if (length <= head.limit()) {
+            return ByteBuffer.wrap(Arrays.copyOf(head.array(), length));
+        }
+        return readAt(channel, offset, length);
+    }
+
+    /**
+     * Checks whether the record at an offset has the given key.
+     *
+     * @param offset   the record's log offset
+     * @param keyBytes the encoded key
+     * @return true if the keys are equal
+     * @throws IOException if the log cannot be read
+     */
+    private boolean keyMatches(long offset, byte[] keyBytes) throws IOException {
+        ByteBuffer record = readAt(offset, 4 + keyBytes.length);
+        if ((record.getShort(0) & 0xFFFF) != keyBytes.length) return false;
+        return Arrays.equals(record.array(), 4, 4 + keyBytes.length, keyBytes, 0, keyBytes.length);
+    }
+
+    /**
+     * Reads exactly {@code length} bytes from the log.
+     *
+     * @param offset the position to read from
+     * @param length the number of bytes
+     * @return a heap buffer holding the bytes
+     * @throws IOException if the log ends early or cannot be read
+     */
+    private ByteBuffer readAt(long offset, int length) throws IOException {
+        return readAt(log, offset, length);
+    }
+
+    /**
+     * Reads exactly {@code length} bytes from a given log channel.
+     *
+     * @param channel the log to read
+     * @param offset  the position to read from
+     * @param length  the number of bytes
+     * @return a heap buffer holding the bytes
+     * @throws IOException if the log ends early or cannot be read
+     */
+    private static ByteBuffer readAt(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException("Truncated user log");
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Returns the byte position of a slot in the index file.
+     *
+     * @param slot the slot number
+     * @return the position of the slot's hash field
+     */
+    private static int slotPos(int slot) {
+        return INDEX_HEADER + slot * SLOT;
+    }
+
+    /**
+     * Hashes a key with 64-bit FNV-1a. Zero marks an empty slot, so it is never returned.
+     *
+     * @param keyBytes the encoded key
+     * @return a non-zero hash
+     */
+    private static long hash(byte[] keyBytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : keyBytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Encodes a key or value, rejecting ones that do not fit the 16-bit length field.
+     *
+     * @param field the text to encode
+     * @return the UTF-8 bytes
+     */
+    private static byte[] encodeField(String field) {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Field too long: " + bytes.length + " bytes");
+        return bytes;
+    }
+
+    /**
+     * Writes the magic number and generation at the start of a log.
+     *
+     * @param channel    the log channel
+     * @param generation the compaction generation
+     * @throws IOException if the header cannot be written
+     */
+    private static void writeLogHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER).putLong(LOG_MAGIC).putLong(generation).flip();
+        writeFully(channel, header, 0);
+    }
+
+    /**
+     * Reads the generation from a log header.
+     *
+     * @param channel the log channel
+     * @return the generation
+     * @throws IOException if the header is missing or not a user log
+     */
+    private static long readLogGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        channel.read(header, 0);
+        if (header.getLong(0) != LOG_MAGIC) throw new IOException("Not a user log");
+        return header.getLong(8);
+    }
+
+    /**
+     * Writes a buffer completely at the given position.
+     *
+     * @param channel  the destination
+     * @param buffer   the bytes to write
+     * @param position the file position
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        int written = 0;
+        while (written < length) {
+            written += channel.write(buffer, position + written);
+        }
+        return length;
+    }
+
+    /**
+     * A record waiting for the next group commit.
+     */
+    private static final class PendingWrite {
+        final byte[] keyBytes;
+        final byte[] valueBytes;
+        final long hash;
+        final boolean onlyIfAbsent;
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        /**
+         * Creates a pending record.
+         *
+         * @param keyBytes     the encoded key
+         * @param valueBytes   the encoded value
+         * @param hash         the key's hash, or 0 to compute it
+         * @param onlyIfAbsent true to reject the record if the key already exists
+         */
+        PendingWrite(byte[] keyBytes, byte[] valueBytes, long hash, boolean onlyIfAbsent) {
+            this.keyBytes = keyBytes;
+            this.valueBytes = valueBytes;
+            this.hash = hash != 0 ? hash : hash(keyBytes);
+            this.onlyIfAbsent = onlyIfAbsent;
+        }
+    }
+
+    /**
+     * Appends records in large buffered chunks while the store is locked for writing.
+     * Records are indexed each time a chunk reaches the log; keys still sitting in the
+     * buffer are tracked separately so {@link #contains} stays exact.
+     */
+    final class BulkWriter implements Closeable {
+        private final FileLock fileLock;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BULK_BUFFER);
+        private final Set<String> buffered = new HashSet<>();
+        private int added;
+
+        /**
+         * Creates a writer; the caller already holds both locks.
+         *
+         * @param fileLock the cross-process lock to release on close
+         */
+        private BulkWriter(FileLock fileLock) {
+            this.fileLock = fileLock;
+        }
+
+        /**
+         * Checks whether a key exists in the store or has already been added through this writer.
+         *
+         * @param key the key to look up
+         * @return true if the key is taken
+         * @throws IOException if the log cannot be read
+         */
+        boolean contains(String key) throws IOException {
+            if (buffered.contains(key)) return true;
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            return find(keyBytes, hash(keyBytes)) >= 0;
+        }
+
+        /**
+         * Stages a record, writing the buffer out first if the record does not fit.
+         *
+         * @param key   the key
+         * @param value the value
+         * @throws IOException if a full buffer cannot be written
+         */
+        void add(String key, String value) throws IOException {
+            byte[] keyBytes = encodeField(key);
+            byte[] valueBytes = encodeField(value);
+            if (4 + keyBytes.length + valueBytes.length > buffer.remaining()) flush();
+            buffer.putShort((short) keyBytes.length).putShort((short) valueBytes.length).put(keyBytes).put(valueBytes);
+            buffered.add(key);
+            added++;
+        }
+
+        /**
+         * Returns how many records were added through this writer.
+         *
+         * @return the record count
+         */
+        int added() {
+            return added;
+        }
+
+        /**
+         * Writes the buffer to the log and indexes the records it held.
+         *
+         * @throws IOException if the log cannot be written
+         */
+        private void flush() throws IOException {
+            if (buffer.position() == 0) return;
+            int length = buffer.position();
+            long start = logEnd;
+            logEnd += writeFully(log, ByteBuffer.wrap(buffer.array(), 0, length), start);
+
+            byte[] bytes = buffer.array();
+            for (int pos = 0; pos < length; ) {
+                int keyLength = buffer.getShort(pos) & 0xFFFF;
+                int valueLength = buffer.getShort(pos + 2) & 0xFFFF;
+                byte[] keyBytes = Arrays.copyOfRange(bytes, pos + 4, pos + 4 + keyLength);
+                upsert(keyBytes, hash(keyBytes), start + pos);
+                pos += 4 + keyLength + valueLength;
+            }
+            index.putLong(H_LOG_LENGTH, logEnd);
+            buffer.clear();
+            buffered.clear();
+        }
+
+        /**
+         * Writes anything still buffered, forces the log and releases both locks.
+         *
+         * @throws IOException if the log cannot be written
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                log.force(false);
+            } finally {
+                fileLock.release();
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
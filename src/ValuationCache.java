@@ -0,0 +1,118 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Remembers results derived from a portfolio, such as its totals or the Zakat due on it, so
+ * asking again costs nothing until the portfolio changes.
+ * <p>
+ * A result is stored under the user and a key naming what it is, together with the portfolio's
+ * {@link AssetRepository#version() version} when it was computed. A lookup with the same
+ * version returns it; any other version computes it again and replaces it, so a change to the
+ * portfolio invalidates exactly that user's results. Entries for the least recently used
+ * results are dropped once there are more than {@value #CAPACITY}. Results are shared between
+ * callers and must not be modified.
+ */
+final class ValuationCache {
+    /** Largest number of results kept. */
+    static final int CAPACITY = 256;
+
+    /**
+     * Identifies a result: whose portfolio and which derived value.
+     */
+    private static final class Key {
+        /** The portfolio's user. */
+        final String username;
+
+        /** What was derived; equal keys must mean the same computation. */
+        final Object kind;
+
+        /**
+         * Creates a key.
+         *
+         * @param username the portfolio's user
+         * @param kind     what was derived
+         */
+        Key(String username, Object kind) {
+            this.username = username;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return username.equals(key.username) && kind.equals(key.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, kind);
+        }
+    }
+
+    /**
+     * A result and the portfolio version it was computed from.
+     */
+    private static final class Entry {
+        /** The portfolio's version stamp when the value was computed. */
+        final long version;
+
+        /** The derived value. */
+        final Object value;
+
+        /**
+         * Creates an entry.
+         *
+         * @param version the version the value was computed from
+         * @param value   the value
+         */
+        Entry(long version, Object value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /** Results, least recently used first; also the lock for the map. */
+    private static final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /**
+     * Prevents instantiation.
+     */
+    private ValuationCache() {
+    }
+
+    /**
+     * Returns a derived result, computing it only if it is missing or was computed from another
+     * version. The caller must keep the portfolio from changing while the result is computed,
+     * for example by holding its lock, so the result matches the version it is stored under.
+     *
+     * @param username the portfolio's user
+     * @param version  the portfolio's current version
+     * @param kind     what is derived, for example a name or a list of parameters
+     * @param compute  computes the result from the portfolio as it is now
+     * @param <T>      the result type
+     * @return the result
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(String username, long version, Object kind, Supplier<T> compute) {
+        Key key = new Key(username, kind);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) {
+                return (T) entry.value;
+            }
+        }
+        T value = compute.get();
+        synchronized (entries) {
+            entries.put(key, new Entry(version, value));
+        }
+        return value;
+    }
+}
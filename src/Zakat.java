@@ -1,19 +1,31 @@
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * Represents the Zakat Calculator window in the application.
  * Allows users to calculate the Zakat (obligatory charity) due on their assets
- * by selecting from their existing portfolio items.
+ * by selecting from their existing portfolio items. The picker reads assets from the
+ * portfolio as they are shown and can be narrowed by typing the start of a name. The window
+ * opens at once and the picker fills in while a large portfolio is still being read. The whole
+ * portfolio can also be assessed at once with the {@link ZakatEngine}, which applies the nisab,
+ * the hawl and the rules for each asset type.
  */
 public class Zakat extends JFrame {
     /** The username of the current user. */
     private String username;
 
+    /** The session of the current user. */
+    private UserSession session;
+
     /** Combo box for selecting assets from the user's portfolio. */
-    private JComboBox<Asset_Edit.Asset> assetComboBox;
+    private JComboBox<Asset> assetComboBox;
+
+    /** The user's portfolio. */
+    private AssetRepository portfolio;
 
     /** Text area displaying the Zakat calculation results. */
     private JTextArea resultArea;
@@ -21,10 +33,11 @@ public class Zakat extends JFrame {
     /**
      * Constructs a Zakat calculator window for the specified user.
      *
-     * @param username the username of the current user
+     * @param session the session of the current user
      */
-    public Zakat(String username) {
-        this.username = username;
+    public Zakat(UserSession session) {
+        this.session = session;
+        this.username = session.getUsername();
         initializeUI();
     }
 
@@ -33,7 +46,7 @@ public class Zakat extends JFrame {
      */
     private void initializeUI() {
         setTitle("Zakat Calculator - " + username);
-        setSize(500, 400);
+        setSize(640, 420);
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         setLocationRelativeTo(null);
 
@@ -47,9 +60,10 @@ public class Zakat extends JFrame {
         titleLabel.setFont(new Font("Arial", Font.BOLD, 18));
         titleLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        // Load assets from storage
-        Asset_Edit.AssetStore assetStore = new Asset_Edit.AssetStore(username);
-        ArrayList<Asset_Edit.Asset> assets = assetStore.getAssets();
+        // Assets come from the session, so reopening this screen does not re-read the file
+        portfolio = session.openPortfolio();
+        AssetListModel assetModel = new AssetListModel(portfolio,
+                asset -> String.format("%s (%s) - $%,.2f", asset.name, asset.type, asset.value));
 
         // Asset selection panel
         JPanel assetSelectionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
@@ -57,15 +71,32 @@ public class Zakat extends JFrame {
         assetLabel.setFont(new Font("Arial", Font.PLAIN, 14));
 
         assetComboBox = new JComboBox<>();
-        for (Asset_Edit.Asset asset : assets) {
-            assetComboBox.addItem(asset);
-        }
+        assetModel.install(assetComboBox);
         assetComboBox.setPreferredSize(new Dimension(300, 30));
         assetComboBox.setFont(new Font("Arial", Font.PLAIN, 14));
-        assetComboBox.setRenderer(new AssetListRenderer());
+
+        JTextField filterField = new JTextField(8);
+        filterField.setToolTipText("Type the start of an asset name");
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterAssets(assetModel, filterField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterAssets(assetModel, filterField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterAssets(assetModel, filterField.getText());
+            }
+        });
 
         assetSelectionPanel.add(assetLabel);
         assetSelectionPanel.add(assetComboBox);
+        assetSelectionPanel.add(filterField);
 
         // Result area
         resultArea = new JTextArea(6, 25);
@@ -88,27 +119,45 @@ public class Zakat extends JFrame {
         customizeButton(calculateButton);
         calculateButton.addActionListener(e -> calculateZakat());
 
+        JButton portfolioButton = new JButton("Whole Portfolio");
+        customizeButton(portfolioButton);
+        portfolioButton.addActionListener(e -> calculatePortfolioZakat());
+
         JButton backButton = new JButton("Back to Dashboard");
         customizeButton(backButton);
         backButton.addActionListener(e -> {
             dispose();
-            new Dashboard(username);
+            new Dashboard(session);
         });
 
         buttonPanel.add(calculateButton);
+        buttonPanel.add(portfolioButton);
         buttonPanel.add(backButton);
 
         // Add components to main panel
         mainPanel.add(titleLabel);
         mainPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         mainPanel.add(assetSelectionPanel);
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        mainPanel.add(progressBar);
         mainPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         mainPanel.add(scrollPane);
         mainPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         mainPanel.add(buttonPanel);
 
         add(mainPanel);
+        filterField.setEnabled(false);
+        portfolioButton.setEnabled(false);
         setVisible(true);
+        PortfolioLoader.start(session, portfolio, this, progressBar, () -> {
+            assetModel.refresh();
+            if (assetModel.getSelectedItem() == null && assetModel.getSize() > 0) {
+                assetModel.setSelectedItem(assetModel.getElementAt(0));
+            }
+        }, () -> {
+            filterField.setEnabled(true);
+            portfolioButton.setEnabled(true);
+        });
     }
 
     /**
@@ -116,7 +165,7 @@ public class Zakat extends JFrame {
      * Shows a warning if no asset is selected.
      */
     private void calculateZakat() {
-        Asset_Edit.Asset selectedAsset = (Asset_Edit.Asset) assetComboBox.getSelectedItem();
+        Asset selectedAsset = (Asset) assetComboBox.getSelectedItem();
 
         if (selectedAsset == null) {
             JOptionPane.showMessageDialog(this,
@@ -146,33 +195,42 @@ public class Zakat extends JFrame {
     }
 
     /**
-     * Custom renderer for displaying assets in the combo box with formatted text.
+     * Calculates and displays the Zakat due on the whole portfolio, by asset type.
      */
-    private class AssetListRenderer extends DefaultListCellRenderer {
-        /**
-         * Configures the display of each item in the asset combo box.
-         *
-         * @param list the JList being rendered
-         * @param value the value to render
-         * @param index the cell index
-         * @param isSelected whether the cell is selected
-         * @param cellHasFocus whether the cell has focus
-         * @return the configured component for rendering
-         */
-        @Override
-        public Component getListCellRendererComponent(
-                JList<?> list, Object value, int index,
-                boolean isSelected, boolean cellHasFocus) {
-
-            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-
-            if (value instanceof Asset_Edit.Asset) {
-                Asset_Edit.Asset asset = (Asset_Edit.Asset) value;
-                setText(String.format("%s (%s) - $%,.2f", asset.name, asset.type, asset.value));
-            }
-
-            return this;
+    private void calculatePortfolioZakat() {
+        ZakatEngine engine = new ZakatEngine();
+        ZakatEngine.Result result = portfolio.zakat(engine);
+
+        StringBuilder text = new StringBuilder("Portfolio Zakat:\n\n");
+        text.append(String.format("Zakatable wealth: $%,.2f (nisab $%,.2f)%n", result.zakatableWealth(), engine.nisab()));
+        if (!result.nisabReached()) {
+            text.append("Below the nisab, so no Zakat is due.\n");
+        }
+        for (Map.Entry<String, Double> entry : result.dueByType().entrySet()) {
+            text.append(String.format("%s: $%,.2f%n", entry.getKey(), entry.getValue()));
+        }
+        text.append(String.format("%nTotal Zakat Due: $%,.2f%n", result.totalDue()));
+        if (result.notYetHeld() > 0) {
+            text.append(String.format("%,d of %,d assets have not been held for a lunar year yet.%n",
+                    result.notYetHeld(), result.size()));
+        }
+        if (result.undated() > 0) {
+            text.append(String.format("%,d assets have no valid purchase date and were left out; edit them to include them.%n",
+                    result.undated()));
         }
+        resultArea.setText(text.toString());
+        resultArea.setCaretPosition(0);
+    }
+
+    /**
+     * Narrows the asset picker to names starting with a prefix and selects the first match.
+     *
+     * @param model  the picker's model
+     * @param prefix the prefix typed so far
+     */
+    private void filterAssets(AssetListModel model, String prefix) {
+        model.setFilter(prefix);
+        model.setSelectedItem(model.getSize() > 0 ? model.getElementAt(0) : null);
     }
 
     /**
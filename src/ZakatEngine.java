@@ -0,0 +1,309 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out the Zakat due on a whole portfolio.
+ * <p>
+ * An asset is zakatable once it has been held for a hawl, one lunar year of
+ * {@value #HAWL_DAYS} days, counted from its purchase date. An asset whose purchase date cannot
+ * be read has not shown that it completed one, so it is left out like an asset held too briefly
+ * and counted separately, for the owner to correct. Each type has a rate: by default 2.5% of the value
+ * for Stocks, Crypto and Gold and for types the engine does not know, and nothing for Real
+ * Estate, since property held for use or rent is exempt and rental income is not recorded here.
+ * Zakat is due only when the zakatable wealth, the value of held assets whose type has a rate,
+ * reaches the nisab threshold; below it nothing is due on any asset.
+ * <p>
+ * The engine reads the value, type code and date columns of an {@link AssetTable} in one
+ * branch-free loop with no objects per asset, so it covers millions of assets in milliseconds.
+ * It does not need the UI: {@link AssetRepository#zakat(ZakatEngine)} runs it on a user's
+ * portfolio and {@link #evaluate(List)} on any list of assets.
+ */
+class ZakatEngine {
+    /** Length of a lunar year in days. */
+    static final int HAWL_DAYS = 354;
+
+    /** Rate for types without a rule of their own. */
+    static final double STANDARD_RATE = 0.025;
+
+    /**
+     * Nisab used when none is given, in the portfolio's currency; about the value of 85 g of
+     * gold. Can be set with the {@code zakat.nisab} system property.
+     */
+    static final double DEFAULT_NISAB = Double.parseDouble(System.getProperty("zakat.nisab", "6000"));
+
+    /** Wealth below which no Zakat is due. */
+    private final double nisab;
+
+    /** Rates by type name; types not listed use {@link #STANDARD_RATE}. */
+    private final Map<String, Double> rates = new HashMap<>();
+
+    /**
+     * Creates an engine with the {@link #DEFAULT_NISAB}.
+     */
+    ZakatEngine() {
+        this(DEFAULT_NISAB);
+    }
+
+    /**
+     * Creates an engine with the standard rules and a given nisab.
+     *
+     * @param nisab wealth below which no Zakat is due
+     */
+    ZakatEngine(double nisab) {
+        this.nisab = nisab;
+        rates.put("Stocks", STANDARD_RATE);
+        rates.put("Real Estate", 0.0);
+        rates.put("Crypto", STANDARD_RATE);
+        rates.put("Gold", STANDARD_RATE);
+    }
+
+    /**
+     * Changes the rate applied to one type. A rate of zero makes the type exempt, so it does not
+     * count toward the nisab either.
+     *
+     * @param type the type name
+     * @param rate the fraction of the value due, for example 0.025
+     */
+    void setRate(String type, double rate) {
+        rates.put(type, rate);
+    }
+
+    /**
+     * Returns the rate applied to a type.
+     *
+     * @param type the type name
+     * @return the fraction of the value due
+     */
+    double rate(String type) {
+        return rates.getOrDefault(type, STANDARD_RATE);
+    }
+
+    /**
+     * Returns the nisab threshold.
+     *
+     * @return wealth below which no Zakat is due
+     */
+    double nisab() {
+        return nisab;
+    }
+
+    /**
+     * Returns a value equal for engines with the same rules, for caching their results.
+     *
+     * @return a snapshot of the nisab and the rates
+     */
+    Object rules() {
+        return List.of(nisab, Map.copyOf(rates));
+    }
+
+    /**
+     * Evaluates a list of assets as of today.
+     *
+     * @param assets the assets
+     * @return the Zakat due, in list order
+     */
+    Result evaluate(List<Asset> assets) {
+        AssetTable table = new AssetTable(assets.size());
+        for (Asset asset : assets) {
+            table.add(asset);
+        }
+        return evaluate(table, LocalDate.now());
+    }
+
+    /**
+     * Evaluates every row of a table.
+     *
+     * @param table the assets
+     * @param today the date the hawl is counted to
+     * @return the Zakat due, in row order
+     */
+    Result evaluate(AssetTable table, LocalDate today) {
+        int typeCount = table.typeCount();
+        double[] rateByCode = new double[typeCount];
+        for (int code = 0; code < typeCount; code++) {
+            rateByCode[code] = rate(table.typeName(code));
+        }
+        long lastHeldDay = today.toEpochDay() - HAWL_DAYS;
+
+        int size = table.size();
+        int[] ids = new int[size];
+        double[] due = new double[size];
+        double[] wealthByCode = new double[typeCount];
+        double[] dueByCode = new double[typeCount];
+        int notYetHeld = 0;
+        int undated = 0;
+        for (int row = 0; row < size; row++) {
+            int code = table.typeCode(row);
+            double rate = rateByCode[code];
+            int day = table.epochDay(row);
+            int dated = day != Asset.UNKNOWN_DAY ? 1 : 0;
+            int held = dated & (day <= lastHeldDay ? 1 : 0);
+            double value = table.value(row) * held;
+            double owed = value * rate;
+            ids[row] = table.id(row);
+            due[row] = owed;
+            wealthByCode[code] += rate > 0 ? value : 0;
+            dueByCode[code] += owed;
+            notYetHeld += dated - held;
+            undated += 1 - dated;
+        }
+
+        double wealth = 0;
+        double totalDue = 0;
+        Map<String, Double> dueByType = new LinkedHashMap<>();
+        for (int code = 0; code < typeCount; code++) {
+            wealth += wealthByCode[code];
+            totalDue += dueByCode[code];
+            dueByType.put(table.typeName(code), dueByCode[code]);
+        }
+        boolean nisabReached = wealth >= nisab;
+        if (!nisabReached) {
+            Arrays.fill(due, 0);
+            dueByType.replaceAll((type, amount) -> 0.0);
+            totalDue = 0;
+        }
+        return new Result(ids, due, dueByType, wealth, totalDue, nisabReached, notYetHeld, undated);
+    }
+
+    /**
+     * The Zakat due on a portfolio, asset by asset and in total.
+     */
+    static final class Result {
+        /** Id of each evaluated asset. */
+        private final int[] ids;
+
+        /** Amount due on each evaluated asset. */
+        private final double[] due;
+
+        /** Amount due per type name. */
+        private final Map<String, Double> dueByType;
+
+        /** Value of held assets whose type has a rate. */
+        private final double zakatableWealth;
+
+        /** Amount due on the whole portfolio. */
+        private final double totalDue;
+
+        /** Whether the zakatable wealth reached the nisab. */
+        private final boolean nisabReached;
+
+        /** Number of assets held for less than a hawl. */
+        private final int notYetHeld;
+
+        /** Number of assets whose purchase date cannot be read. */
+        private final int undated;
+
+        /**
+         * Creates a result.
+         *
+         * @param ids             asset ids, one per evaluated asset
+         * @param due             the amount due on each asset
+         * @param dueByType       the amount due per type name
+         * @param zakatableWealth value of held assets whose type has a rate
+         * @param totalDue        the amount due on the whole portfolio
+         * @param nisabReached    whether the wealth reached the nisab
+         * @param notYetHeld      number of assets held for less than a hawl
+         * @param undated         number of assets whose purchase date cannot be read
+         */
+        Result(int[] ids, double[] due, Map<String, Double> dueByType, double zakatableWealth,
+               double totalDue, boolean nisabReached, int notYetHeld, int undated) {
+            this.ids = ids;
+            this.due = due;
+            this.dueByType = dueByType;
+            this.zakatableWealth = zakatableWealth;
+            this.totalDue = totalDue;
+            this.nisabReached = nisabReached;
+            this.notYetHeld = notYetHeld;
+            this.undated = undated;
+        }
+
+        /**
+         * Returns the number of assets evaluated.
+         *
+         * @return the asset count
+         */
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Returns the id of an evaluated asset.
+         *
+         * @param i the asset's position in the evaluated order
+         * @return its id
+         */
+        int id(int i) {
+            return ids[i];
+        }
+
+        /**
+         * Returns the Zakat due on one asset.
+         *
+         * @param i the asset's position in the evaluated order
+         * @return the amount due, zero if it is exempt, not yet held for a hawl, undated or below
+         *         the nisab
+         */
+        double due(int i) {
+            return due[i];
+        }
+
+        /**
+         * Returns the Zakat due on each type, in type code order.
+         *
+         * @return a read-only map from type name to amount due
+         */
+        Map<String, Double> dueByType() {
+            return Collections.unmodifiableMap(dueByType);
+        }
+
+        /**
+         * Returns the value the nisab was compared with.
+         *
+         * @return the value of held assets whose type has a rate
+         */
+        double zakatableWealth() {
+            return zakatableWealth;
+        }
+
+        /**
+         * Returns the Zakat due on the whole portfolio.
+         *
+         * @return the total amount due
+         */
+        double totalDue() {
+            return totalDue;
+        }
+
+        /**
+         * Checks whether the zakatable wealth reached the nisab.
+         *
+         * @return true if Zakat is due
+         */
+        boolean nisabReached() {
+            return nisabReached;
+        }
+
+        /**
+         * Returns how many assets have been held for less than a hawl.
+         *
+         * @return the count
+         */
+        int notYetHeld() {
+            return notYetHeld;
+        }
+
+        /**
+         * Returns how many assets were left out because their purchase date cannot be read.
+         *
+         * @return the count
+         */
+        int undated() {
+            return undated;
+        }
+    }
+}
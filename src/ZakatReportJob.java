@@ -0,0 +1,285 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Works out the Zakat due for every user with a portfolio, without the UI, for year-end
+ * processing.
+ * <p>
+ * Users are found by listing the data directory for base files, "assets_&lt;username&gt;.txt"
+ * or ".col", as the listing is read. Each user is one task on a work-stealing pool, and no more
+ * than {@value #TASKS_PER_THREAD} tasks per thread are queued at a time, so only the portfolios
+ * being evaluated are in memory however many users there are; a resumed run also keeps the
+ * names read back from the checkpoint. Each user's line is appended to
+ * the report and flushed as soon as it is done, in completion order.
+ * <p>
+ * The report is also the checkpoint. If it already exists, the users listed in it are skipped
+ * and their totals are carried over, so a job that was stopped picks up where it left off; a
+ * line cut short by the stop is dropped and that user is done again. Delete the report to start
+ * over. Users whose evaluation fails, including those whose files cannot be read, are reported
+ * on the console and left out of the report, so a later run retries them.
+ * <p>
+ * Usage: {@code java ZakatReportJob <report-file> [threads]}
+ */
+public class ZakatReportJob {
+    /** First line of a report. */
+    static final String HEADER = "username,assets,zakatable_wealth,nisab_reached,zakat_due,not_yet_held,undated";
+
+    /** Largest number of queued or running tasks per pool thread. */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * Outcome of a job run.
+     */
+    static final class Result {
+        /** Users evaluated by this run. */
+        final AtomicLong users = new AtomicLong();
+
+        /** Users carried over from the checkpoint. */
+        long resumed;
+
+        /** Users whose evaluation failed. */
+        final AtomicLong failed = new AtomicLong();
+
+        /** Assets evaluated by this run. */
+        final AtomicLong assets = new AtomicLong();
+
+        /** Zakat due across every user in the report, including resumed ones. */
+        final DoubleAdder totalDue = new DoubleAdder();
+
+        /** Wall-clock duration of the run in nanoseconds. */
+        long elapsedNanos;
+
+        /**
+         * Returns a one-line summary including throughput.
+         *
+         * @return the summary
+         */
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            long done = users.get();
+            return String.format("Evaluated %,d users (%,d assets), resumed %,d, failed %,d in %.2f s "
+                            + "(%,.0f users/s, %,.0f assets/s); total Zakat due $%,.2f",
+                    done, assets.get(), resumed, failed.get(), seconds,
+                    seconds > 0 ? done / seconds : (double) done,
+                    seconds > 0 ? assets.get() / seconds : (double) assets.get(),
+                    totalDue.sum());
+        }
+    }
+
+    /**
+     * Evaluates every user not already in the report and appends them to it.
+     *
+     * @param report  the report file, created if it does not exist
+     * @param threads the number of users evaluated at once
+     * @param engine  the Zakat rules
+     * @return counts, totals and timing for the run
+     * @throws IOException if the data directory cannot be listed or the report cannot be written
+     */
+    public static Result run(Path report, int threads, ZakatEngine engine) throws IOException {
+        Result result = new Result();
+        long start = System.nanoTime();
+        Set<String> done = readCheckpoint(report, result);
+
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        Semaphore slots = new Semaphore(threads * TASKS_PER_THREAD);
+        try (BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(""), "assets_*.{txt,col}")) {
+            if (done.isEmpty() && Files.size(report) == 0) {
+                writeLine(writer, HEADER);
+            }
+            for (Path file : files) {
+                String username = usernameOf(file);
+                if (username == null || done.contains(username)) continue;
+                slots.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        evaluate(username, engine, writer, result);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting for the last users
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Evaluates one user and appends their line to the report.
+     *
+     * @param username the user
+     * @param engine   the Zakat rules
+     * @param writer   the report
+     * @param result   the run's counters
+     */
+    private static void evaluate(String username, ZakatEngine engine, BufferedWriter writer, Result result) {
+        try {
+            ZakatEngine.Result zakat = AssetRepository.zakatFor(username, engine);
+            // Totals add up the amounts as reported, so a resumed run arrives at the same sum
+            String due = String.format(Locale.ROOT, "%.2f", zakat.totalDue());
+            writeLine(writer, String.format(Locale.ROOT, "%s,%d,%.2f,%b,%s,%d,%d", Asset.quote(username), zakat.size(),
+                    zakat.zakatableWealth(), zakat.nisabReached(), due, zakat.notYetHeld(), zakat.undated()));
+            result.users.incrementAndGet();
+            result.assets.addAndGet(zakat.size());
+            result.totalDue.add(Double.parseDouble(due));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not evaluate " + username);
+            e.printStackTrace();
+            result.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads the users already in a report and adds their Zakat to the totals. A last line
+     * without a line break was cut short, so it is removed from the file; any other line that
+     * cannot be read is left in place but does not count as done.
+     *
+     * @param report the report file
+     * @param result the run's counters
+     * @return the usernames already reported
+     * @throws IOException if the report cannot be read or trimmed
+     */
+    private static Set<String> readCheckpoint(Path report, Result result) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(report)) return done;
+        long complete = 0;
+        try (BufferedReader reader = Files.newBufferedReader(report, StandardCharsets.UTF_8);
+             FileChannel channel = FileChannel.open(report, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long next = complete + line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (next > size) break;
+                complete = next;
+                if (line.equals(HEADER) || line.isEmpty()) continue;
+                int end = endOfFirstField(line);
+                String[] fields = end < line.length() ? line.substring(end + 1).split(",", -1) : new String[0];
+                double due;
+                try {
+                    due = fields.length == 6 ? Double.parseDouble(fields[3]) : Double.NaN;
+                } catch (NumberFormatException e) {
+                    due = Double.NaN;
+                }
+                if (Double.isNaN(due)) {
+                    // Not a line this job wrote; the user is evaluated again
+                    System.err.println("Ignoring malformed report line: " + line);
+                    continue;
+                }
+                done.add(unquote(line.substring(0, end)));
+                result.totalDue.add(due);
+            }
+        }
+        if (complete < Files.size(report)) {
+            try (FileChannel channel = FileChannel.open(report, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+        result.resumed = done.size();
+        return done;
+    }
+
+    /**
+     * Returns the user a base file belongs to. A CSV file is skipped when the user also has a
+     * columnar one, since the columnar file is the one in use.
+     *
+     * @param file a file matching "assets_*.txt" or "assets_*.col"
+     * @return the username, or null if the file should be skipped
+     */
+    private static String usernameOf(Path file) {
+        String name = file.getFileName().toString();
+        String username = name.substring("assets_".length(), name.length() - ".txt".length());
+        if (name.endsWith(AssetRepository.Format.CSV.extension)
+                && Files.exists(file.resolveSibling("assets_" + username + AssetRepository.Format.COLUMNAR.extension))) {
+            return null;
+        }
+        return username.isEmpty() ? null : username;
+    }
+
+    /**
+     * Finds the comma that ends a report line's first field, which may be quoted.
+     *
+     * @param line the line
+     * @return the index of the comma
+     */
+    private static int endOfFirstField(String line) {
+        if (!line.startsWith("\"")) return line.indexOf(',');
+        int i = 1;
+        while (i < line.length()) {
+            if (line.charAt(i) == '"') {
+                if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return line.length();
+    }
+
+    /**
+     * Undoes {@link Asset#quote(String)}.
+     *
+     * @param field the field as written
+     * @return the field text
+     */
+    private static String unquote(String field) {
+        if (field.length() < 2 || !field.startsWith("\"")) return field;
+        return field.substring(1, field.length() - 1).replace("\"\"", "\"");
+    }
+
+    /**
+     * Appends a line to the report and flushes it, so the checkpoint is never behind the work
+     * that has been done.
+     *
+     * @param writer the report
+     * @param line   the line without its line break
+     * @throws IOException if the write fails
+     */
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        synchronized (writer) {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the report file, and optionally the number of threads
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java ZakatReportJob <report-file> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        try {
+            System.out.println(run(Paths.get(args[0]), threads, new ZakatEngine()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
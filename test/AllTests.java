@@ -0,0 +1,59 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs every test and reports which ones failed. The asset tests read and write their files in
+ * the working directory, so run this from an empty scratch directory:
+ * <p>
+ * {@code javac -d out src/*.java test/*.java && mkdir scratch && cd scratch
+ * && java -cp ../out AllTests}
+ */
+public class AllTests {
+    /**
+     * A single test.
+     */
+    interface Test {
+        /**
+         * Runs the test.
+         *
+         * @throws Exception if it fails
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the tests and exits with status 1 if any failed.
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args) {
+        Map<String, Test> tests = new LinkedHashMap<>();
+        tests.put("UserStore replays past a torn append", UserStoreTest::tornAppend);
+        tests.put("UserStore compacts while puts run", UserStoreTest::compactDuringPuts);
+        tests.put("AssetRepository replays past a torn journal record", AssetRepositoryTest::tornJournal);
+        tests.put("AssetRepository replays edits in place", AssetRepositoryTest::replayKeepsRows);
+        tests.put("AssetRepository compacts while edits run", AssetRepositoryTest::compactDuringEdits);
+        tests.put("AssetRepository rereads files replaced elsewhere", AssetRepositoryTest::rereadReplaced);
+        tests.put("AssetRepository never reuses an id across reload", AssetRepositoryTest::idsSurviveReload);
+        tests.put("AssetRepository keeps a held repository past eviction", AssetRepositoryTest::heldSurvivesEviction);
+        tests.put("AssetRecordParser reads what Asset writes", AssetRecordParserTest::roundTrip);
+        tests.put("AssetRecordParser reads legacy unquoted commas", AssetRecordParserTest::legacyCommas);
+        tests.put("AssetRecordParser reads exponent values", AssetRecordParserTest::exponents);
+        tests.put("AssetRecordParser keeps line breaks out of records", AssetRecordParserTest::lineBreaks);
+        tests.put("ZakatReportJob resumes from a truncated report", ZakatReportJobTest::resumeTruncated);
+
+        int failed = 0;
+        for (Map.Entry<String, Test> test : tests.entrySet()) {
+            try {
+                test.getValue().run();
+                System.out.println("PASS " + test.getKey());
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.println("FAIL " + test.getKey());
+                e.printStackTrace(System.out);
+            }
+        }
+        System.out.println((tests.size() - failed) + " of " + tests.size() + " tests passed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
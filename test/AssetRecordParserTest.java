@@ -0,0 +1,81 @@
+/**
+ * Tests that {@link AssetRecordParser} reads back what {@link Asset#toFileString()} writes, as
+ * well as the forms older files used.
+ */
+final class AssetRecordParserTest {
+    /**
+     * Prevents instantiation.
+     */
+    private AssetRecordParserTest() {
+    }
+
+    /**
+     * Names, types and dates with commas and quotes come back unchanged.
+     */
+    static void roundTrip() {
+        Asset[] assets = {
+                new Asset(1, "Gold", "Plain", 10.5, "2020-01-01"),
+                new Asset(2, "Real Estate", "Flat, top floor", 250000.0, "2019-12-31"),
+                new Asset(3, "Stocks", "The \"Big\" Fund", 0.25, "2021-06-15"),
+                new Asset(4, "Side, \"project\"", "\"", 1.0, "March 2020"),
+                new Asset(5, "Crypto", "", 0.0, "2022-02-02"),
+        };
+        for (Asset asset : assets) {
+            check(asset, Asset.fromFileString(asset.toFileString()));
+        }
+    }
+
+    /**
+     * Records from before quoting was added, with commas in an unquoted name, keep the extra
+     * fields in the name.
+     */
+    static void legacyCommas() {
+        check(new Asset(7, "Gold", "Bar, 24 carat, stamped", 1200.0, "2018-05-01"),
+                Asset.fromFileString("7,Gold,Bar, 24 carat, stamped,1200.0,2018-05-01"));
+    }
+
+    /**
+     * Values large or small enough for {@link Double#toString(double)} to use an exponent, as it
+     * does from ten million up, come back exactly.
+     */
+    static void exponents() {
+        double[] values = {1.0E7, 1.2345678E9, 9.99E-4, 1.7976931348623157E308, 4.9E-324, -2.5E7};
+        for (int i = 0; i < values.length; i++) {
+            Asset asset = new Asset(10 + i, "Real Estate", "Estate " + i, values[i], "2020-01-01");
+            Check.that(asset.toFileString().contains("E"), "value written with an exponent: " + asset.toFileString());
+            check(asset, Asset.fromFileString(asset.toFileString()));
+        }
+        check(new Asset(20, "Gold", "Lower case", 3.0e6, "2020-01-01"),
+                Asset.fromFileString("20,Gold,Lower case,3e6,2020-01-01"));
+        check(new Asset(21, "Gold", "Signed", 1.5e7, "2020-01-01"),
+                Asset.fromFileString("21,Gold,Signed,1.5E+7,2020-01-01"));
+    }
+
+    /**
+     * A line break in a field is written as a space, so the record stays on one line and reads
+     * back as one record rather than two broken ones.
+     */
+    static void lineBreaks() {
+        Asset asset = new Asset(30, "Gold", "First line\nsecond, \"quoted\"\r\nthird\rfourth", 5.0, "2020-01-01");
+        String line = asset.toFileString();
+        Check.that(!Asset.hasLineBreak(line), "record written on one line: " + line);
+        check(new Asset(30, "Gold", "First line second, \"quoted\" third fourth", 5.0, "2020-01-01"),
+                Asset.fromFileString(line));
+    }
+
+    /**
+     * Compares a parsed asset with the one expected, field by field.
+     *
+     * @param expected the asset written
+     * @param actual   the asset read back, or null if the line was rejected
+     */
+    private static void check(Asset expected, Asset actual) {
+        Check.that(actual != null, "rejected " + expected.toFileString());
+        String line = expected.toFileString();
+        Check.equal(expected.id, actual.id, "id of " + line);
+        Check.equal(expected.type, actual.type, "type of " + line);
+        Check.equal(expected.name, actual.name, "name of " + line);
+        Check.equal(expected.value, actual.value, "value of " + line);
+        Check.equal(expected.purchaseDate, actual.purchaseDate, "date of " + line);
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link AssetRepository}: replaying the journal after a crash, compaction running
+ * alongside edits, reading files another repository replaced, id allocation across reloads,
+ * and sessions holding a repository through cache eviction. Each test loads the user's files again
+ * through a second repository, as another process or a restart would.
+ */
+final class AssetRepositoryTest {
+    /**
+     * Prevents instantiation.
+     */
+    private AssetRepositoryTest() {
+    }
+
+    /**
+     * Edits journaled before a crash are replayed, and a record the crash cut short is ignored
+     * rather than applied half-written.
+     *
+     * @throws Exception if the test fails
+     */
+    static void tornJournal() throws Exception {
+        String username = Check.freshUser("torn");
+        try {
+            AssetRepository repository = new AssetRepository(username);
+            int first = repository.nextId();
+            int second = repository.nextId();
+            int third = repository.nextId();
+            repository.addAsset(new Asset(first, "Gold", "Ring", 100.0, "2020-01-01"));
+            repository.addAsset(new Asset(second, "Stocks", "Shares", 200.0, "2020-01-01"));
+            repository.addAsset(new Asset(third, "Crypto", "Coins", 300.0, "2020-01-01"));
+            repository.updateAsset(first, new Asset(first, "Gold", "Ring", 150.0, "2020-01-01"));
+            repository.removeAsset(second);
+            repository.whenSaved().get();
+
+            // A crash mid-append: the upsert is cut off in the middle of its date
+            Path journal = Paths.get("assets_" + username + ".journal");
+            Check.that(Files.exists(journal), "the edits were journaled");
+            try (Writer writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+                writer.write("U," + third + ",Crypto,Coins,99.0,2020-0");
+            }
+
+            AssetRepository reloaded = new AssetRepository(username);
+            Check.equal(2, reloaded.size(), "assets after the crash");
+            Check.equal(150.0, valueOf(reloaded, first), "the edit before the crash");
+            Check.equal(300.0, valueOf(reloaded, third), "the asset whose edit was torn");
+
+            // Later edits are appended after the torn bytes, not joined onto them
+            reloaded.updateAsset(third, new Asset(third, "Crypto", "Coins", 350.0, "2020-01-01"));
+            reloaded.whenSaved().get();
+            Check.equal(350.0, valueOf(new AssetRepository(username), third), "an edit made after the crash");
+        } finally {
+            Check.deleteAssets(username);
+        }
+    }
+
+    /**
+     * Replaying a journal of edits, removals and additions leaves the rows as they were in the
+     * repository that made them, in the same order.
+     *
+     * @throws Exception if the test fails
+     */
+    static void replayKeepsRows() throws Exception {
+        String username = Check.freshUser("replay");
+        try {
+            AssetRepository repository = new AssetRepository(username);
+            int[] ids = new int[50];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = repository.nextId();
+                repository.addAsset(new Asset(ids[i], Asset.TYPES[i % Asset.TYPES.length], "Asset " + i, i, "2020-01-01"));
+            }
+            repository.whenSaved().get();
+            for (int i = 0; i < ids.length; i += 3) {
+                repository.updateAsset(ids[i], new Asset(ids[i], "Gold", "Edited " + i, i * 10.0, "2021-02-03"));
+            }
+            for (int i = 1; i < ids.length; i += 4) {
+                repository.removeAsset(ids[i]);
+            }
+            repository.updateAsset(ids[0], new Asset(ids[0], "Stocks", "Edited again", 1.5, "2022-04-05"));
+            repository.whenSaved().get();
+
+            List<Asset> expected = repository.getAssets();
+            List<Asset> actual = new AssetRepository(username).getAssets();
+            Check.equal(expected.size(), actual.size(), "assets after replaying");
+            for (int i = 0; i < expected.size(); i++) {
+                Check.equal(expected.get(i).toFileString(), actual.get(i).toFileString(), "row " + i);
+            }
+        } finally {
+            Check.deleteAssets(username);
+        }
+    }
+
+    /**
+     * Compactions run back to back while another thread edits, and no edit is lost in the swap.
+     *
+     * @throws Exception if the test fails
+     */
+    static void compactDuringEdits() throws Exception {
+        String username = Check.freshUser("compact");
+        int count = 100;
+        int rounds = 20;
+        try {
+            AssetRepository repository = new AssetRepository(username);
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = repository.nextId();
+                repository.addAsset(new Asset(ids[i], "Gold", "Bar " + i, 0.0, "2020-01-01"));
+            }
+            repository.whenSaved().get();
+
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread editor = new Thread(() -> {
+                try {
+                    for (int round = 1; round <= rounds; round++) {
+                        for (int i = 0; i < count; i++) {
+                            repository.updateAsset(ids[i], new Asset(ids[i], "Gold", "Bar " + i, round, "2020-01-01"));
+                        }
+                        repository.whenSaved().get();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            editor.start();
+            while (editor.isAlive()) {
+                repository.compact();
+            }
+            editor.join();
+            if (failure.get() != null) throw new AssertionError("editor failed", failure.get());
+            repository.whenSaved().get();
+
+            AssetRepository reloaded = new AssetRepository(username);
+            Check.equal(count, reloaded.size(), "assets after reloading");
+            for (int i = 0; i < count; i++) {
+                Check.equal((double) rounds, valueOf(reloaded, ids[i]), "asset " + ids[i] + " after reloading");
+            }
+        } finally {
+            Check.deleteAssets(username);
+        }
+    }
+
+    /**
+     * A repository reads the files again when another one replaces them, and edits it makes
+     * meanwhile survive the swap, while rows stay readable throughout.
+     *
+     * @throws Exception if the test fails
+     */
+    static void rereadReplaced() throws Exception {
+        String username = Check.freshUser("reread");
+        int count = 100;
+        int rounds = 10;
+        try {
+            AssetRepository repository = new AssetRepository(username);
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = repository.nextId();
+                repository.addAsset(new Asset(ids[i], "Gold", "Bar " + i, 0.0, "2020-01-01"));
+            }
+            repository.whenSaved().get();
+
+            AssetRepository other = new AssetRepository(username);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        int size = repository.size();
+                        for (int i = 0; i < size; i++) {
+                            repository.getAsset(i);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            int[] added = new int[rounds];
+            for (int round = 1; round <= rounds; round++) {
+                added[round - 1] = other.nextId();
+                other.addAsset(new Asset(added[round - 1], "Stocks", "Share " + round, round, "2020-01-01"));
+                other.whenSaved().get();
+                other.compact();
+                for (int i = 0; i < count; i++) {
+                    repository.updateAsset(ids[i], new Asset(ids[i], "Gold", "Bar " + i, round, "2020-01-01"));
+                }
+                repository.whenSaved().get();
+                repository.refresh();
+            }
+            reader.interrupt();
+            reader.join();
+            if (failure.get() != null) throw new AssertionError("reader failed", failure.get());
+
+            Check.equal(count + rounds, repository.size(), "assets after rereading");
+            for (int i = 0; i < count; i++) {
+                Check.equal((double) rounds, valueOf(repository, ids[i]), "asset " + ids[i] + " in memory");
+            }
+            AssetRepository reloaded = new AssetRepository(username);
+            Check.equal(count + rounds, reloaded.size(), "assets after reloading");
+            for (int i = 0; i < count; i++) {
+                Check.equal((double) rounds, valueOf(reloaded, ids[i]), "asset " + ids[i] + " after reloading");
+            }
+            for (int round = 1; round <= rounds; round++) {
+                Check.equal((double) round, valueOf(reloaded, added[round - 1]), "asset added elsewhere");
+            }
+        } finally {
+            PersistenceQueue.flush();
+            Check.deleteAssets(username);
+        }
+    }
+
+    /**
+     * Ids handed out before a reload, whether used for an asset or not, are never handed out
+     * again, and two repositories open on the same files at once never share an id.
+     *
+     * @throws Exception if the test fails
+     */
+    static void idsSurviveReload() throws Exception {
+        String username = Check.freshUser("ids");
+        try {
+            Set<Integer> issued = new HashSet<>();
+            AssetRepository repository = new AssetRepository(username);
+            for (int i = 0; i < AssetRepository.ID_BLOCK * 3; i++) {
+                int id = repository.nextId();
+                Check.that(issued.add(id), "id " + id + " was issued twice");
+                if (i % 10 == 0) {
+                    repository.addAsset(new Asset(id, "Gold", "Coin " + i, 1.0, "2020-01-01"));
+                }
+            }
+            repository.whenSaved().get();
+            PersistenceQueue.flush();
+
+            AssetRepository reloaded = new AssetRepository(username);
+            for (int i = 0; i < AssetRepository.ID_BLOCK * 3; i++) {
+                int id = reloaded.nextId();
+                Check.that(issued.add(id), "id " + id + " was issued again after reloading");
+                id = repository.nextId();
+                Check.that(issued.add(id), "id " + id + " was issued to both repositories");
+            }
+        } finally {
+            PersistenceQueue.flush();
+            Check.deleteAssets(username);
+        }
+    }
+
+    /**
+     * A repository a session holds stays the user's one instance after it leaves the cache,
+     * and only once released is it replaced by a new one.
+     *
+     * @throws Exception if the test fails
+     */
+    static void heldSurvivesEviction() throws Exception {
+        String username = Check.freshUser("held");
+        AssetRepository held = AssetRepository.hold(username);
+        AssetRepository same = AssetRepository.hold(username);
+        Check.that(held == same, "a second hold gets the same repository");
+        fillCache();
+        Check.that(AssetRepository.open(username) == held, "a held repository is handed out after eviction");
+        fillCache();
+        held.release();
+        Check.that(AssetRepository.open(username) == held, "a repository with one hold left is handed out");
+        fillCache();
+        same.release();
+        fillCache();
+        Check.that(AssetRepository.open(username) != held, "a released repository is replaced once evicted");
+    }
+
+    /**
+     * Opens enough other users' repositories to push every earlier one out of the cache.
+     */
+    private static void fillCache() {
+        int size = Integer.getInteger("assets.cacheSize", AssetRepository.DEFAULT_CACHE_SIZE);
+        for (int i = 0; i <= size; i++) {
+            AssetRepository.open(Check.freshUser("filler"));
+        }
+    }
+
+    /**
+     * Returns the value of the asset with a given id.
+     *
+     * @param repository the repository
+     * @param id         the asset's id
+     * @return its value
+     */
+    private static double valueOf(AssetRepository repository, int id) {
+        for (Asset asset : repository.getAssets()) {
+            if (asset.id == id) return asset.value;
+        }
+        throw new AssertionError("no asset with id " + id);
+    }
+}
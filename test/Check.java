@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Objects;
+
+/**
+ * Assertions and file helpers shared by the tests. The tests need no framework; see
+ * {@link AllTests} for how they are run.
+ */
+final class Check {
+    /**
+     * Prevents instantiation.
+     */
+    private Check() {
+    }
+
+    /**
+     * Fails unless a condition holds.
+     *
+     * @param condition the condition
+     * @param message   what was expected
+     */
+    static void that(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    /**
+     * Fails unless two values are equal.
+     *
+     * @param expected the expected value
+     * @param actual   the actual value
+     * @param what     what the values are, for the message
+     */
+    static void equal(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Returns a username no earlier test run has used, so asset files in the working directory
+     * never clash.
+     *
+     * @param prefix a short name for the test
+     * @return the username
+     */
+    static String freshUser(String prefix) {
+        return prefix + Long.toString(System.nanoTime(), 36);
+    }
+
+    /**
+     * Deletes every file kept for a user's assets in the working directory.
+     *
+     * @param username the user
+     * @throws IOException if a file cannot be deleted
+     */
+    static void deleteAssets(String username) throws IOException {
+        for (String extension : new String[]{".txt", ".col", ".journal", ".lock"}) {
+            Files.deleteIfExists(Paths.get("assets_" + username + extension));
+        }
+    }
+}
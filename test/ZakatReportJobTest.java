@@ -0,0 +1,76 @@
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests that {@link ZakatReportJob} picks up a report that a stopped run left behind.
+ */
+final class ZakatReportJobTest {
+    /**
+     * Prevents instantiation.
+     */
+    private ZakatReportJobTest() {
+    }
+
+    /**
+     * A report whose last line was cut short is resumed: finished users are carried over,
+     * the cut user is evaluated again, and the report ends up as a full run would leave it.
+     *
+     * @throws Exception if the test fails
+     */
+    static void resumeTruncated() throws Exception {
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            usernames.add(Check.freshUser("zakat" + i));
+        }
+        Path dir = Files.createTempDirectory("zakatreport");
+        Path full = dir.resolve("full.csv");
+        Path resumed = dir.resolve("resumed.csv");
+        try {
+            for (int i = 0; i < usernames.size(); i++) {
+                AssetRepository repository = new AssetRepository(usernames.get(i));
+                for (int j = 0; j <= i; j++) {
+                    repository.addAsset(new Asset(repository.nextId(), "Gold", "Bar " + j, 5000.0 * (i + 1), "2020-01-01"));
+                }
+                repository.whenSaved().get();
+            }
+            PersistenceQueue.flush();
+            ZakatEngine engine = new ZakatEngine();
+
+            ZakatReportJob.Result first = ZakatReportJob.run(full, 2, engine);
+            Check.equal(0L, first.failed.get(), "users that failed");
+            List<String> lines = Files.readAllLines(full, StandardCharsets.UTF_8);
+            Check.equal(ZakatReportJob.HEADER, lines.get(0), "report header");
+            for (String username : usernames) {
+                Check.that(lines.stream().anyMatch(line -> line.startsWith(username + ",")), username + " is reported");
+            }
+
+            // A stop mid-write: the last line loses its tail and its line break
+            Files.copy(full, resumed);
+            String last = lines.get(lines.size() - 1);
+            try (FileChannel channel = FileChannel.open(resumed, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - System.lineSeparator().length() - last.length() / 2);
+            }
+
+            ZakatReportJob.Result second = ZakatReportJob.run(resumed, 2, engine);
+            Check.equal(0L, second.failed.get(), "users that failed on resuming");
+            Check.equal(1L, second.users.get(), "users evaluated again");
+            Check.equal(first.users.get() - 1, second.resumed, "users carried over");
+            Check.equal(Math.round(first.totalDue.sum() * 100), Math.round(second.totalDue.sum() * 100),
+                    "total Zakat due in cents");
+            List<String> resumedLines = Files.readAllLines(resumed, StandardCharsets.UTF_8);
+            Check.equal(lines.size(), resumedLines.size(), "lines in the resumed report");
+            Check.equal(new HashSet<>(lines), new HashSet<>(resumedLines), "lines of the resumed report");
+        } finally {
+            for (String username : usernames) {
+                Check.deleteAssets(username);
+            }
+            Files.deleteIfExists(full);
+            Files.deleteIfExists(resumed);
+            Files.deleteIfExists(dir);
+        }
+    }
+}